@@ -0,0 +1,53 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.errorprone;
+
+import com.google.auto.service.AutoService;
+import com.google.common.base.Preconditions;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.Plugin;
+import com.sun.tools.javac.api.BasicJavacTask;
+import java.nio.file.FileSystems;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compiler plugin which writes the cumulative time spent in each error-prone check during a compilation to the file
+ * passed as {@code --out}. It's loaded from the same processor path as error-prone itself, and must be enabled with
+ * {@code -Xplugin:BaselineErrorProneProfiler --out <file>}.
+ */
+@AutoService(Plugin.class)
+public final class BaselineErrorProneProfiler implements Plugin {
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    @SuppressWarnings("PreferSafeLoggingPreconditions")
+    public void init(JavacTask task, String... args) {
+        List<String> listArgs = Arrays.asList(args);
+        int outIndex = listArgs.indexOf("--out");
+        Preconditions.checkArgument(outIndex != -1, "No --out specified");
+        Preconditions.checkArgument(listArgs.size() > outIndex + 1, "No value passed for --out");
+        String path = listArgs.get(outIndex + 1);
+
+        Preconditions.checkArgument(task instanceof BasicJavacTask, "JavacTask not instance of BasicJavacTask");
+        task.addTaskListener(new ErrorProneProfileWriter(
+                ((BasicJavacTask) task).getContext(), FileSystems.getDefault().getPath(path)));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.errorprone;
+
+import com.google.errorprone.ErrorProneTimings;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.tools.javac.util.Context;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Writes the timings that error-prone records for each check in {@link ErrorProneTimings} as tab-separated lines of
+ * check name and nanoseconds, slowest first.
+ */
+final class ErrorProneProfileWriter implements TaskListener {
+
+    /**
+     * The timings are written once the whole compilation has finished where javac says so, and otherwise updated
+     * after every class, as there is no other way to tell when the last class has been analyzed.
+     */
+    private static final TaskEvent.Kind WRITE_AFTER = Arrays.stream(TaskEvent.Kind.values())
+            .filter(kind -> kind.name().equals("COMPILATION"))
+            .findFirst()
+            .orElse(TaskEvent.Kind.ANALYZE);
+
+    private final Context context;
+    private final Path destinationPath;
+
+    ErrorProneProfileWriter(Context context, Path destinationPath) {
+        this.context = context;
+        this.destinationPath = destinationPath;
+    }
+
+    @Override
+    @SuppressWarnings("StrictUnusedVariable")
+    public void started(TaskEvent taskEvent) {}
+
+    @Override
+    public void finished(TaskEvent taskEvent) {
+        if (taskEvent.getKind() != WRITE_AFTER) {
+            return;
+        }
+        List<String> lines = ErrorProneTimings.instance(context).timings().entrySet().stream()
+                .sorted(Map.Entry.<String, Duration>comparingByValue().reversed())
+                .map(entry -> entry.getKey() + '\t' + entry.getValue().toNanos())
+                .collect(Collectors.toList());
+        try {
+            Files.createDirectories(destinationPath.getParent());
+            Files.write(destinationPath, lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write error-prone profile to " + destinationPath, e);
+        }
+    }
+}
@@ -17,11 +17,17 @@
 package com.palantir.baseline.plugins;
 
 import com.palantir.baseline.tasks.CheckClassUniquenessLockTask;
+import com.palantir.baseline.tasks.ClassUniquenessScanner;
+import java.util.Objects;
+import java.util.Optional;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.plugins.ExtraPropertiesExtension;
 import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.TaskProvider;
 import org.gradle.language.base.plugins.LifecycleBasePlugin;
+import org.gradle.util.GradleVersion;
 
 /**
  * This plugin is similar to https://github.com/nebula-plugins/gradle-lint-plugin/wiki/Duplicate-Classes-Rule but goes
@@ -31,10 +37,17 @@ import org.gradle.language.base.plugins.LifecycleBasePlugin;
  * <p>The task only fails if it finds classes which have the same name but different implementations.
  */
 public class BaselineClassUniquenessPlugin extends AbstractBaselinePlugin {
+    public static final String USE_ZIP_CHECKSUMS_PROPERTY = "com.palantir.baseline-class-uniqueness.use-zip-checksums";
+    private static final String FALLBACK_SCANNER = "baselineClassUniquenessScanner";
+
     @Override
     public final void apply(Project project) {
-        TaskProvider<CheckClassUniquenessLockTask> checkClassUniqueness =
-                project.getTasks().register("checkClassUniqueness", CheckClassUniquenessLockTask.class);
+        Provider<ClassUniquenessScanner> scanner = scanner(project);
+        TaskProvider<CheckClassUniquenessLockTask> checkClassUniqueness = project.getTasks()
+                .register("checkClassUniqueness", CheckClassUniquenessLockTask.class, task -> {
+                    task.getScanner().set(scanner);
+                    task.getUseZipChecksums().set(useZipChecksums(project));
+                });
         project.getPlugins().apply(LifecycleBasePlugin.class);
         project.getTasks().getByName(LifecycleBasePlugin.CHECK_TASK_NAME).dependsOn(checkClassUniqueness);
 
@@ -43,6 +56,7 @@ public class BaselineClassUniquenessPlugin extends AbstractBaselinePlugin {
                 Configuration runtimeClasspath =
                         project.getConfigurations().getByName(JavaPlugin.RUNTIME_CLASSPATH_CONFIGURATION_NAME);
                 t.configurations.add(runtimeClasspath);
+                t.getTargetRelease().set(BaselineReleaseCompatibility.targetRelease(project));
 
                 // runtimeClasspath might contain jars which are 'builtBy' other tasks, for example conjure-generated
                 // objects. This dependsOn ensures that all those pre-requisite tasks get invoked first, otherwise
@@ -51,4 +65,30 @@ public class BaselineClassUniquenessPlugin extends AbstractBaselinePlugin {
             });
         });
     }
+
+    /** Set with {@code -P<property>} or {@code -P<property>=true}, but not {@code -P<property>=false}. */
+    private static boolean useZipChecksums(Project project) {
+        return Optional.ofNullable(project.findProperty(USE_ZIP_CHECKSUMS_PROPERTY))
+                .map(Objects::toString)
+                .map(value -> value.isEmpty() || Boolean.parseBoolean(value))
+                .orElse(false);
+    }
+
+    /** All projects in a build share a single {@link ClassUniquenessScanner}, which is discarded at the end of it. */
+    private static Provider<ClassUniquenessScanner> scanner(Project project) {
+        if (GradleVersion.current().compareTo(GradleVersion.version("6.1")) >= 0) {
+            return ClassUniquenessScannerService.register(project).map(ClassUniquenessScannerService::getScanner);
+        }
+        // Build services are only available from Gradle 6.1, so fall back to an instance stored on the root project,
+        // which is equally discarded at the end of the build.
+        ExtraPropertiesExtension rootProperties =
+                project.getRootProject().getExtensions().getExtraProperties();
+        synchronized (rootProperties) {
+            if (!rootProperties.has(FALLBACK_SCANNER)) {
+                rootProperties.set(FALLBACK_SCANNER, new ClassUniquenessScanner());
+            }
+            ClassUniquenessScanner scanner = (ClassUniquenessScanner) rootProperties.get(FALLBACK_SCANNER);
+            return project.provider(() -> scanner);
+        }
+    }
 }
@@ -20,7 +20,6 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.MoreCollectors;
 import com.palantir.baseline.extensions.BaselineErrorProneExtension;
 import com.palantir.baseline.tasks.CompileRefasterTask;
@@ -32,7 +31,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -43,7 +44,6 @@ import org.gradle.api.JavaVersion;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
-import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.RegularFile;
 import org.gradle.api.logging.Logger;
@@ -52,8 +52,7 @@ import org.gradle.api.plugins.ExtensionAware;
 import org.gradle.api.plugins.JavaPluginConvention;
 import org.gradle.api.plugins.JavaPluginExtension;
 import org.gradle.api.provider.Provider;
-import org.gradle.api.specs.Spec;
-import org.gradle.api.tasks.SourceSet;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.compile.JavaCompile;
 import org.gradle.api.tasks.javadoc.Javadoc;
 import org.gradle.api.tasks.testing.Test;
@@ -138,6 +137,7 @@ public final class BaselineErrorProne implements Plugin<Project> {
                             });
         }
 
+        Supplier<Optional<Set<File>>> changedFiles = ErrorProneChangedFiles.changedFiles(project);
         project.getTasks().withType(JavaCompile.class).configureEach(javaCompile -> {
             ((ExtensionAware) javaCompile.getOptions())
                     .getExtensions()
@@ -149,9 +149,20 @@ public final class BaselineErrorProne implements Plugin<Project> {
                                 errorProneExtension,
                                 javaCompile,
                                 errorProneOptions);
+                        if (ErrorProneChangedFiles.isEnabled(project) && !javaCompile.equals(compileRefaster)) {
+                            ErrorProneChangedFiles.configure(javaCompile, errorProneOptions, changedFiles);
+                        }
                     });
         });
 
+        if (isRefactoring(project) && ErrorPronePatching.isOutOfPlace(project)) {
+            ErrorPronePatching.applyTask(project);
+        }
+
+        if (ErrorProneCheckTasks.isEnabled(project) && !project.hasProperty(DISABLE_PROPERY)) {
+            ErrorProneCheckTasks.register(project);
+        }
+
         // To allow refactoring of deprecated methods, even when -Xlint:deprecation is specified, we need to remove
         // these compiler flags after all configuration has happened.
         project.afterEvaluate(
@@ -197,6 +208,9 @@ public final class BaselineErrorProne implements Plugin<Project> {
         if (project.hasProperty(DISABLE_PROPERY)) {
             log.info("Disabling baseline-error-prone for {} due to {}", project, DISABLE_PROPERY);
             errorProneOptions.getEnabled().set(false);
+        } else if (ErrorProneCheckTasks.isCheckedSeparately(project, javaCompile)) {
+            log.info("Disabling baseline-error-prone for {} as it's checked by a separate task", javaCompile);
+            errorProneOptions.getEnabled().set(false);
         } else {
             errorProneOptions.getEnabled().set(true);
         }
@@ -246,47 +260,70 @@ public final class BaselineErrorProne implements Plugin<Project> {
             return;
         }
 
+        project.getConvention()
+                .getPlugin(JavaPluginConvention.class)
+                .getSourceSets()
+                .matching(ss -> javaCompile.getName().equals(ss.getCompileJavaTaskName()))
+                .stream()
+                .collect(MoreCollectors.toOptional())
+                .ifPresent(sourceSet -> ErrorProneCheckRequirements.configure(
+                        project,
+                        errorProneOptions,
+                        project.getConfigurations().getByName(sourceSet.getCompileClasspathConfigurationName())));
+
+        if (ErrorProneProfiling.isEnabled(project) && !project.hasProperty(DISABLE_PROPERY)) {
+            ErrorProneProfiling.configure(project, javaCompile);
+        }
+
         if (isRefactoring(project)) {
-            // Don't attempt to cache since it won't capture the source files that might be modified
-            javaCompile.getOutputs().cacheIf(t -> false);
+            String patchLocation;
+            if (ErrorPronePatching.isOutOfPlace(project)) {
+                patchLocation = ErrorPronePatching.configure(project, javaCompile).getAbsolutePath();
+            } else {
+                // Don't attempt to cache since it won't capture the source files that might be modified
+                javaCompile.getOutputs().cacheIf(t -> false);
+                patchLocation = "IN_PLACE";
+            }
 
             if (isRefasterRefactoring(project)) {
                 javaCompile.dependsOn(compileRefaster);
+                javaCompile
+                        .getInputs()
+                        .files(refasterRulesFile)
+                        .withPropertyName("refasterRules")
+                        .withPathSensitivity(PathSensitivity.NONE);
                 errorProneOptions.getErrorproneArgumentProviders().add(new CommandLineArgumentProvider() {
                     // intentionally not using a lambda to reduce gradle warnings
                     @Override
                     public Iterable<String> asArguments() {
                         String file = refasterRulesFile.get().getAbsolutePath();
                         return new File(file).exists()
-                                ? ImmutableList.of("-XepPatchChecks:refaster:" + file, "-XepPatchLocation:IN_PLACE")
+                                ? ImmutableList.of(
+                                        "-XepPatchChecks:refaster:" + file, "-XepPatchLocation:" + patchLocation)
                                 : Collections.emptyList();
                     }
                 });
             }
 
             if (isErrorProneRefactoring(project)) {
-                Optional<SourceSet> maybeSourceSet = project
-                        .getConvention()
-                        .getPlugin(JavaPluginConvention.class)
-                        .getSourceSets()
-                        .matching(ss -> javaCompile.getName().equals(ss.getCompileJavaTaskName()))
-                        .stream()
-                        .collect(MoreCollectors.toOptional());
-
                 // TODO(gatesn): Is there a way to discover error-prone checks?
                 // Maybe service-load from a ClassLoader configured with annotation processor path?
                 // https://github.com/google/error-prone/pull/947
+                Provider<String> patchChecks = project.provider(() -> {
+                    // Don't apply checks that have been explicitly disabled
+                    Stream<String> errorProneChecks = getSpecificErrorProneChecks(project)
+                            .orElseGet(() -> getNotDisabledErrorproneChecks(
+                                    errorProneExtension, javaCompile, errorProneOptions));
+                    return Joiner.on(',').join(errorProneChecks.iterator());
+                });
+                // The checks aren't otherwise an input, so the outputs of a build applying other checks could be reused
+                javaCompile.getInputs().property("errorPronePatchChecks", patchChecks);
                 errorProneOptions.getErrorproneArgumentProviders().add(new CommandLineArgumentProvider() {
                     // intentionally not using a lambda to reduce gradle warnings
                     @Override
                     public Iterable<String> asArguments() {
-                        // Don't apply checks that have been explicitly disabled
-                        Stream<String> errorProneChecks = getSpecificErrorProneChecks(project)
-                                .orElseGet(() -> getNotDisabledErrorproneChecks(
-                                        project, errorProneExtension, javaCompile, maybeSourceSet, errorProneOptions));
                         return ImmutableList.of(
-                                "-XepPatchChecks:" + Joiner.on(',').join(errorProneChecks.iterator()),
-                                "-XepPatchLocation:IN_PLACE");
+                                "-XepPatchChecks:" + patchChecks.get(), "-XepPatchLocation:" + patchLocation);
                     }
                 });
             }
@@ -302,17 +339,10 @@ public final class BaselineErrorProne implements Plugin<Project> {
     }
 
     private static Stream<String> getNotDisabledErrorproneChecks(
-            Project project,
             BaselineErrorProneExtension errorProneExtension,
             JavaCompile javaCompile,
-            Optional<SourceSet> maybeSourceSet,
             ErrorProneOptions errorProneOptions) {
-        // If this javaCompile is associated with a source set, use it to figure out if it has preconditions or not.
-        Predicate<String> filterOutPreconditions = maybeSourceSet
-                .map(ss -> filterOutPreconditions(
-                        project.getConfigurations().getByName(ss.getCompileClasspathConfigurationName())))
-                .orElse(check -> true);
-
+        // Includes checks turned off because the libraries they need aren't on the classpath
         return errorProneExtension.getPatchChecks().get().stream().filter(check -> {
             if (checkExplicitlyDisabled(errorProneOptions, check)) {
                 log.info(
@@ -321,50 +351,23 @@ public final class BaselineErrorProne implements Plugin<Project> {
                         check);
                 return false;
             }
-            return filterOutPreconditions.test(check);
+            return true;
         });
     }
 
-    private static boolean hasDependenciesMatching(Configuration configuration, Spec<ModuleComponentIdentifier> spec) {
-        return !Iterables.isEmpty(configuration
-                .getIncoming()
-                .artifactView(viewConfiguration -> viewConfiguration.componentFilter(ci ->
-                        ci instanceof ModuleComponentIdentifier && spec.isSatisfiedBy((ModuleComponentIdentifier) ci)))
-                .getArtifacts());
-    }
-
-    /** Filters out preconditions checks if the required libraries are not on the classpath. */
+    /**
+     * Filters out preconditions checks if the required libraries are not on the classpath.
+     *
+     * @deprecated Every check whose libraries are missing from the compile classpath, including the preconditions
+     * checks, is now turned off for each compile task, so this is no longer needed.
+     */
+    @Deprecated
     public static Predicate<String> filterOutPreconditions(Configuration compileClasspath) {
-        boolean hasPreconditions =
-                hasDependenciesMatching(compileClasspath, BaselineErrorProne::isSafeLoggingPreconditionsDep);
-
-        return check -> {
-            if (!hasPreconditions) {
-                if (check.equals("PreferSafeLoggingPreconditions")) {
-                    log.info(
-                            "Disabling check PreferSafeLoggingPreconditions as "
-                                    + "'com.palantir.safe-logging:preconditions' missing from {}",
-                            compileClasspath);
-                    return false;
-                }
-                if (check.equals("PreferSafeLoggableExceptions")) {
-                    log.info(
-                            "Disabling check PreferSafeLoggableExceptions as 'com.palantir.safe-logging:preconditions' "
-                                    + "missing from {}",
-                            compileClasspath);
-                    return false;
-                }
-            }
-            return true;
-        };
-    }
-
-    private static boolean isSafeLoggingPreconditionsDep(ModuleComponentIdentifier mci) {
-        return mci.getGroup().equals("com.palantir.safe-logging")
-                && mci.getModule().equals("preconditions");
+        Map<String, CheckSeverity> checksToDisable = ErrorProneCheckRequirements.checksToDisable(compileClasspath);
+        return check -> !checksToDisable.containsKey(check);
     }
 
-    private static boolean isRefactoring(Project project) {
+    static boolean isRefactoring(Project project) {
         return isRefasterRefactoring(project) || isErrorProneRefactoring(project);
     }
 
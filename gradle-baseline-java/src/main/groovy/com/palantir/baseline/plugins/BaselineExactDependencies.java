@@ -20,24 +20,41 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMap.Builder;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.palantir.baseline.tasks.CheckDependencyUsageTask;
 import com.palantir.baseline.tasks.CheckImplicitDependenciesParentTask;
 import com.palantir.baseline.tasks.CheckImplicitDependenciesTask;
 import com.palantir.baseline.tasks.CheckUnusedDependenciesParentTask;
 import com.palantir.baseline.tasks.CheckUnusedDependenciesTask;
+import com.palantir.baseline.tasks.ReferencedClassesTask;
 import java.io.File;
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.concurrent.ThreadSafe;
 import org.apache.maven.shared.dependency.analyzer.ClassAnalyzer;
 import org.apache.maven.shared.dependency.analyzer.DefaultClassAnalyzer;
-import org.apache.maven.shared.dependency.analyzer.DependencyAnalyzer;
-import org.apache.maven.shared.dependency.analyzer.asm.ASMDependencyAnalyzer;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
@@ -50,7 +67,11 @@ import org.gradle.api.artifacts.component.ProjectComponentIdentifier;
 import org.gradle.api.attributes.Attribute;
 import org.gradle.api.attributes.LibraryElements;
 import org.gradle.api.attributes.Usage;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.plugins.ExtraPropertiesExtension;
 import org.gradle.api.plugins.JavaPluginConvention;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.TaskProvider;
 import org.gradle.util.GUtil;
@@ -60,11 +81,11 @@ import org.gradle.util.GradleVersion;
 public final class BaselineExactDependencies implements Plugin<Project> {
 
     private static final ClassAnalyzer JAR_ANALYZER = new DefaultClassAnalyzer();
-    private static final DependencyAnalyzer CLASS_FILE_ANALYZER = new ASMDependencyAnalyzer();
 
-    // All applications of this plugin share a single static 'Indexes' instance, because the classes
-    // contained in a particular jar are immutable.
-    public static final Indexes INDEXES = new Indexes();
+    public static final String MAX_INDEXED_CLASSES_PROPERTY =
+            "com.palantir.baseline-exact-dependencies.max-indexed-classes";
+    private static final String FALLBACK_INDEXES = "baselineExactDependenciesIndexes";
+    private static final String USAGE_MATRIX_PROPERTY = "com.palantir.baseline-exact-dependencies.usage-matrix";
     public static final ImmutableSet<String> VALID_ARTIFACT_EXTENSIONS = ImmutableSet.of("jar", "");
 
     @Override
@@ -74,18 +95,70 @@ public final class BaselineExactDependencies implements Plugin<Project> {
                     project.getTasks().register("checkUnusedDependencies", CheckUnusedDependenciesParentTask.class);
             TaskProvider<CheckImplicitDependenciesParentTask> checkImplicitDependencies =
                     project.getTasks().register("checkImplicitDependencies", CheckImplicitDependenciesParentTask.class);
+            Provider<Indexes> indexes = indexes(project);
+            Optional<TaskProvider<CheckDependencyUsageTask>> checkDependencyUsage = isUsageMatrixEnabled(project)
+                    ? Optional.of(project.getTasks().register("checkDependencyUsage", CheckDependencyUsageTask.class))
+                    : Optional.empty();
+            checkDependencyUsage.ifPresent(checkAllSourceSets -> {
+                checkAllSourceSets.configure(task -> task.getIndexes().set(indexes));
+                // Both parent tasks then check all source sets at once, rather than running the per source set tasks
+                checkUnusedDependencies.configure(task -> task.dependsOn(checkAllSourceSets));
+                checkImplicitDependencies.configure(task -> task.dependsOn(checkAllSourceSets));
+            });
 
             project.getConvention()
                     .getPlugin(JavaPluginConvention.class)
                     .getSourceSets()
-                    .all(sourceSet ->
-                            configureSourceSet(project, sourceSet, checkUnusedDependencies, checkImplicitDependencies));
+                    .all(sourceSet -> configureSourceSet(
+                            project,
+                            sourceSet,
+                            indexes,
+                            checkDependencyUsage,
+                            checkUnusedDependencies,
+                            checkImplicitDependencies));
         });
     }
 
+    /** Set with {@code -P<property>} or {@code -P<property>=true}, but not {@code -P<property>=false}. */
+    private static boolean isUsageMatrixEnabled(Project project) {
+        return Optional.ofNullable(project.findProperty(USAGE_MATRIX_PROPERTY))
+                .map(Objects::toString)
+                .map(value -> value.isEmpty() || Boolean.parseBoolean(value))
+                .orElse(false);
+    }
+
+    /**
+     * All projects in a build share a single {@link Indexes} instance, because the classes contained in a particular
+     * jar are immutable. It is discarded at the end of the build.
+     */
+    private static Provider<Indexes> indexes(Project project) {
+        int maxIndexedClasses = Optional.ofNullable(project.findProperty(MAX_INDEXED_CLASSES_PROPERTY))
+                .map(value -> Integer.parseInt(value.toString()))
+                .orElse(Indexes.DEFAULT_MAX_CLASSES);
+        if (GradleVersion.current().compareTo(GradleVersion.version("6.1")) >= 0) {
+            return ExactDependenciesIndexService.register(project, maxIndexedClasses)
+                    .map(ExactDependenciesIndexService::getIndexes);
+        }
+        // Build services are only available from Gradle 6.1, so fall back to an instance stored on the root project,
+        // which is equally discarded at the end of the build.
+        ExtraPropertiesExtension rootProperties =
+                project.getRootProject().getExtensions().getExtraProperties();
+        synchronized (rootProperties) {
+            if (!rootProperties.has(FALLBACK_INDEXES)) {
+                rootProperties.set(
+                        FALLBACK_INDEXES,
+                        new Indexes(Runtime.getRuntime().availableProcessors(), maxIndexedClasses));
+            }
+            Indexes indexes = (Indexes) rootProperties.get(FALLBACK_INDEXES);
+            return project.provider(() -> indexes);
+        }
+    }
+
     private static void configureSourceSet(
             Project project,
             SourceSet sourceSet,
+            Provider<Indexes> indexes,
+            Optional<TaskProvider<CheckDependencyUsageTask>> checkDependencyUsage,
             TaskProvider<CheckUnusedDependenciesParentTask> checkUnusedDependencies,
             TaskProvider<CheckImplicitDependenciesParentTask> checkImplicitDependencies) {
         Configuration implementation =
@@ -173,11 +246,26 @@ public final class BaselineExactDependencies implements Plugin<Project> {
                 .beforeResolve(ir -> Preconditions.checkState(
                         projectsEvaluated.get(), "Tried to resolve %s too early.", explicitCompile));
 
-        TaskProvider<CheckUnusedDependenciesTask> sourceSetUnusedDependencies = project.getTasks()
+        TaskProvider<ReferencedClassesTask> referencedClasses = project.getTasks()
                 .register(
-                        checkUnusedDependenciesNameForSourceSet(sourceSet), CheckUnusedDependenciesTask.class, task -> {
+                        GUtil.toLowerCamelCase("collectReferencedClasses " + sourceSet.getName()),
+                        ReferencedClassesTask.class,
+                        task -> {
                             task.dependsOn(sourceSet.getClassesTaskName());
                             task.setSourceClasses(sourceSet.getOutput().getClassesDirs());
+                            task.getAnalyzer().set(ReferencedClassAnalyzer.forProject(project));
+                            task.getOutputDirectory()
+                                    .set(project.getLayout()
+                                            .getBuildDirectory()
+                                            .dir("baseline-exact-dependencies/" + sourceSet.getName()));
+                        });
+
+        TaskProvider<CheckUnusedDependenciesTask> sourceSetUnusedDependencies = project.getTasks()
+                .register(
+                        checkUnusedDependenciesNameForSourceSet(sourceSet), CheckUnusedDependenciesTask.class, task -> {
+                            task.getReferencedClasses()
+                                    .set(referencedClasses.flatMap(ReferencedClassesTask::getReferencedClassesFile));
+                            task.getIndexes().set(indexes);
                             task.dependenciesConfiguration(explicitCompile);
 
                             // this is liberally applied to ease the Java8 -> 11 transition
@@ -186,14 +274,14 @@ public final class BaselineExactDependencies implements Plugin<Project> {
                             // pick up ignores configured globally on the parent task
                             task.ignore(checkUnusedDependencies.get().getIgnore());
                         });
-        checkUnusedDependencies.configure(task -> task.dependsOn(sourceSetUnusedDependencies));
         TaskProvider<CheckImplicitDependenciesTask> sourceSetCheckImplicitDependencies = project.getTasks()
                 .register(
                         GUtil.toLowerCamelCase("checkImplicitDependencies " + sourceSet.getName()),
                         CheckImplicitDependenciesTask.class,
                         task -> {
-                            task.dependsOn(sourceSet.getClassesTaskName());
-                            task.setSourceClasses(sourceSet.getOutput().getClassesDirs());
+                            task.getReferencedClasses()
+                                    .set(referencedClasses.flatMap(ReferencedClassesTask::getReferencedClassesFile));
+                            task.getIndexes().set(indexes);
                             task.dependenciesConfiguration(compileClasspath);
 
                             task.ignore("org.slf4j", "slf4j-api");
@@ -201,7 +289,22 @@ public final class BaselineExactDependencies implements Plugin<Project> {
                             // pick up ignores configured globally on the parent task
                             task.ignore(checkImplicitDependencies.get().getIgnore());
                         });
-        checkImplicitDependencies.configure(task -> task.dependsOn(sourceSetCheckImplicitDependencies));
+
+        if (checkDependencyUsage.isPresent()) {
+            // The ignores are read when the check runs, so they include any configured on the per source set tasks
+            checkDependencyUsage
+                    .get()
+                    .configure(task -> task.sourceSet(new CheckDependencyUsageTask.SourceSetDependencies(
+                            sourceSet.getName(),
+                            referencedClasses.flatMap(ReferencedClassesTask::getReferencedClassesFile),
+                            explicitCompile,
+                            compileClasspath,
+                            project.provider(() -> sourceSetUnusedDependencies.get().getIgnored().get()),
+                            project.provider(() -> sourceSetCheckImplicitDependencies.get().getIgnored().get()))));
+        } else {
+            checkUnusedDependencies.configure(task -> task.dependsOn(sourceSetUnusedDependencies));
+            checkImplicitDependencies.configure(task -> task.dependsOn(sourceSetCheckImplicitDependencies));
+        }
     }
 
     static String checkUnusedDependenciesNameForSourceSet(SourceSet sourceSet) {
@@ -219,15 +322,20 @@ public final class BaselineExactDependencies implements Plugin<Project> {
         return excludeRule.build();
     }
 
-    /** Given a {@code com/palantir/product/Foo.class} file, what other classes does it import/reference. */
+    /**
+     * Given a {@code com/palantir/product/Foo.class} file (or a directory of them), what other classes does it
+     * import/reference.
+     */
     public static Stream<String> referencedClasses(File classFile) {
-        try {
-            return BaselineExactDependencies.CLASS_FILE_ANALYZER
-                    .analyze(classFile.toURI().toURL())
-                    .stream();
-        } catch (IOException e) {
-            throw new RuntimeException("Unable to analyze " + classFile, e);
+        return ReferencedClassAnalyzer.ASM.referencedClasses(classFile);
+    }
+
+    /** Jars are listed from their central directory, other artifacts (i.e. class directories) are walked. */
+    private static Set<String> classesIn(File artifact) throws IOException {
+        if (artifact.isFile()) {
+            return JarClassLister.classesInJar(artifact);
         }
+        return JAR_ANALYZER.analyze(artifact.toURI().toURL());
     }
 
     public static String asString(ResolvedArtifact artifact) {
@@ -267,51 +375,284 @@ public final class BaselineExactDependencies implements Plugin<Project> {
         return asString(artifact);
     }
 
+    /**
+     * Indexes the classes contained in resolved artifacts. Instances are shared by all projects in a build (see
+     * {@link ExactDependenciesIndexService}), and hold at most roughly {@code maxClasses} classes: once more than that
+     * have been indexed, the least recently used artifacts that no task is currently using are evicted.
+     */
     @ThreadSafe
     public static final class Indexes {
-        private final Map<String, ResolvedArtifact> classToDependency = new ConcurrentHashMap<>();
-        private final Map<ResolvedArtifact, Set<String>> classesFromArtifact = new ConcurrentHashMap<>();
+        public static final int DEFAULT_MAX_CLASSES = 2_000_000;
+        private static final Logger log = Logging.getLogger(Indexes.class);
+
+        // Class names are stored once in 'classNames' and referred to by id everywhere else. All of these fields are
+        // only accessed while holding 'lock', except 'artifactsFromDependency'.
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private ClassNameTable classNames = new ClassNameTable();
+        private ResolvedArtifact[] classToDependency = new ResolvedArtifact[1024];
+        private final Map<ResolvedArtifact, IndexedArtifact> classesFromArtifact = new HashMap<>();
+        private long indexedClasses = 0;
+        private long clock = 0;
+
         private final Map<ResolvedArtifact, ResolvedDependency> artifactsFromDependency = new ConcurrentHashMap<>();
+        private final ExecutorService scanner;
+        private final int maxClasses;
+
+        public Indexes() {
+            this(Runtime.getRuntime().availableProcessors());
+        }
+
+        public Indexes(int parallelism) {
+            this(parallelism, DEFAULT_MAX_CLASSES);
+        }
+
+        /** Jars are scanned using at most {@code parallelism} threads, which are released when idle. */
+        public Indexes(int parallelism, int maxClasses) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    parallelism,
+                    parallelism,
+                    10,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("baseline-exact-dependencies-%d")
+                            .setDaemon(true)
+                            .build());
+            executor.allowCoreThreadTimeOut(true);
+            this.scanner = executor;
+            this.maxClasses = maxClasses;
+        }
 
-        public void populateIndexes(Set<ResolvedDependency> declaredDependencies) {
+        /**
+         * Indexes the artifacts of {@code declaredDependencies}, which won't be evicted until the returned lease is
+         * closed.
+         */
+        public Lease populateIndexes(Set<ResolvedDependency> declaredDependencies, JarClassIndexCache jarCache) {
             Set<ResolvedArtifact> allArtifacts = declaredDependencies.stream()
                     .flatMap(dependency -> dependency.getAllModuleArtifacts().stream())
                     .filter(dependency -> VALID_ARTIFACT_EXTENSIONS.contains(dependency.getExtension()))
                     .collect(Collectors.toSet());
 
-            allArtifacts.forEach(artifact -> {
-                try {
-                    File jar = artifact.getFile();
-                    Set<String> classesInArtifact =
-                            JAR_ANALYZER.analyze(jar.toURI().toURL());
-                    classesFromArtifact.put(artifact, classesInArtifact);
-                    classesInArtifact.forEach(clazz -> classToDependency.put(clazz, artifact));
-                } catch (IOException e) {
-                    throw new RuntimeException("Unable to analyze artifact", e);
+            // The classes in a jar never change, so only scan artifacts we haven't seen before.
+            Lease lease = new Lease();
+            List<ResolvedArtifact> newArtifacts = new ArrayList<>();
+            lock.writeLock().lock();
+            try {
+                for (ResolvedArtifact artifact : allArtifacts) {
+                    IndexedArtifact indexed = classesFromArtifact.get(artifact);
+                    if (indexed == null) {
+                        newArtifacts.add(artifact);
+                    } else {
+                        lease.acquire(artifact, indexed);
+                    }
                 }
-            });
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            Instant before = Instant.now();
+            try {
+                List<Future<?>> scans = newArtifacts.stream()
+                        .map(artifact -> scanner.submit(() -> indexArtifact(artifact, jarCache, lease)))
+                        .collect(Collectors.toList());
+                scans.forEach(Futures::getUnchecked);
+            } catch (RuntimeException e) {
+                lease.close();
+                throw e;
+            }
+            log.debug(
+                    "Indexed {} new artifacts ({} already indexed) in {}ms",
+                    newArtifacts.size(),
+                    allArtifacts.size() - newArtifacts.size(),
+                    Duration.between(before, Instant.now()).toMillis());
 
             declaredDependencies.forEach(dependency -> dependency
                     .getModuleArtifacts()
                     .forEach(artifact -> artifactsFromDependency.put(artifact, dependency)));
+
+            lock.writeLock().lock();
+            try {
+                evictIfNecessary();
+                if (log.isDebugEnabled()) {
+                    logHeapUsage();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return lease;
+        }
+
+        private void indexArtifact(ResolvedArtifact artifact, JarClassIndexCache jarCache, Lease lease) {
+            Set<String> classesInArtifact;
+            try {
+                classesInArtifact = jarCache.classesInJar(artifact.getFile(), BaselineExactDependencies::classesIn);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to analyze artifact", e);
+            }
+            lock.writeLock().lock();
+            try {
+                IndexedArtifact indexed = classesFromArtifact.get(artifact);
+                if (indexed == null) {
+                    // Another task may concurrently have indexed the same artifact, in which case we use theirs.
+                    int[] classIds = new int[classesInArtifact.size()];
+                    int index = 0;
+                    for (String clazz : classesInArtifact) {
+                        classIds[index++] = intern(clazz, artifact);
+                    }
+                    indexed = new IndexedArtifact(classIds);
+                    classesFromArtifact.put(artifact, indexed);
+                    indexedClasses += classIds.length;
+                }
+                lease.acquire(artifact, indexed);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private int intern(String clazz, ResolvedArtifact artifact) {
+            int id = classNames.intern(clazz);
+            if (id >= classToDependency.length) {
+                classToDependency = Arrays.copyOf(classToDependency, Math.max(id + 1, classToDependency.length * 2));
+            }
+            classToDependency[id] = artifact;
+            return id;
+        }
+
+        /**
+         * Evicts the least recently used artifacts that aren't leased until the index is back down to three quarters
+         * of its maximum size, so that we don't immediately have to evict again. Class names can't be removed from
+         * the name table, and a class may be contained in several artifacts, so the remaining artifacts are then
+         * re-indexed from scratch.
+         */
+        private void evictIfNecessary() {
+            if (indexedClasses <= maxClasses) {
+                return;
+            }
+            long targetClasses = maxClasses / 4L * 3;
+            List<Map.Entry<ResolvedArtifact, IndexedArtifact>> candidates = classesFromArtifact.entrySet().stream()
+                    .filter(entry -> entry.getValue().leases == 0)
+                    .sorted(Comparator.comparingLong(entry -> entry.getValue().lastUsed))
+                    .collect(Collectors.toList());
+            int evicted = 0;
+            for (Map.Entry<ResolvedArtifact, IndexedArtifact> candidate : candidates) {
+                if (indexedClasses <= targetClasses) {
+                    break;
+                }
+                classesFromArtifact.remove(candidate.getKey());
+                artifactsFromDependency.remove(candidate.getKey());
+                indexedClasses -= candidate.getValue().classIds.length;
+                evicted++;
+            }
+            if (evicted == 0) {
+                return;
+            }
+
+            ClassNameTable oldClassNames = classNames;
+            classNames = new ClassNameTable();
+            classToDependency = new ResolvedArtifact[classToDependency.length];
+            // Re-index in the order the artifacts were used, so the most recently used artifact owns shared classes.
+            classesFromArtifact.entrySet().stream()
+                    .sorted(Comparator.comparingLong(entry -> entry.getValue().lastUsed))
+                    .forEach(entry -> {
+                        int[] classIds = entry.getValue().classIds;
+                        for (int i = 0; i < classIds.length; i++) {
+                            classIds[i] = intern(oldClassNames.name(classIds[i]), entry.getKey());
+                        }
+                    });
+            log.info(
+                    "Evicted {} artifacts from the exact dependencies index, {} artifacts remain",
+                    evicted,
+                    classesFromArtifact.size());
+        }
+
+        private void logHeapUsage() {
+            long classToDependencyBytes = 8L * classToDependency.length;
+            long artifactClassBytes = 4L * indexedClasses;
+            log.debug(
+                    "Exact dependencies index holds {} distinct classes from {} artifacts in ~{}KB "
+                            + "(names: {}KB, class to artifact: {}KB, artifact to classes: {}KB)",
+                    classNames.size(),
+                    classesFromArtifact.size(),
+                    (classNames.retainedBytes() + classToDependencyBytes + artifactClassBytes) / 1024,
+                    classNames.retainedBytes() / 1024,
+                    classToDependencyBytes / 1024,
+                    artifactClassBytes / 1024);
         }
 
         /** Given a class, what dependency brought it in. */
         public Optional<ResolvedArtifact> classToDependency(String clazz) {
-            return Optional.ofNullable(classToDependency.get(clazz));
+            lock.readLock().lock();
+            try {
+                int id = classNames.find(clazz);
+                return id < 0 ? Optional.empty() : Optional.ofNullable(classToDependency[id]);
+            } finally {
+                lock.readLock().unlock();
+            }
         }
 
         /** Given an artifact, what classes does it contain. */
         public Stream<String> classesFromArtifact(ResolvedArtifact resolvedArtifact) {
-            return Preconditions.checkNotNull(
-                    classesFromArtifact.get(resolvedArtifact), "Unable to find resolved artifact")
-                    .stream();
+            lock.readLock().lock();
+            try {
+                IndexedArtifact indexed = Preconditions.checkNotNull(
+                        classesFromArtifact.get(resolvedArtifact), "Unable to find resolved artifact");
+                return Arrays.stream(indexed.classIds)
+                        .mapToObj(classNames::name)
+                        .collect(Collectors.toList())
+                        .stream();
+            } finally {
+                lock.readLock().unlock();
+            }
         }
 
         public ResolvedDependency artifactsFromDependency(ResolvedArtifact resolvedArtifact) {
             return Preconditions.checkNotNull(
                     artifactsFromDependency.get(resolvedArtifact), "Unable to find resolved artifact");
         }
+
+        /** Stops the threads used to scan artifacts. */
+        public void shutdown() {
+            scanner.shutdownNow();
+        }
+
+        /** Keeps artifacts indexed until closed. */
+        public final class Lease implements AutoCloseable {
+            private final List<ResolvedArtifact> leased = new ArrayList<>();
+            private boolean closed = false;
+
+            private Lease() {}
+
+            private void acquire(ResolvedArtifact artifact, IndexedArtifact indexed) {
+                indexed.leases++;
+                indexed.lastUsed = ++clock;
+                leased.add(artifact);
+            }
+
+            @Override
+            public void close() {
+                lock.writeLock().lock();
+                try {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    // Leased artifacts are never evicted, so must still be present.
+                    leased.forEach(artifact -> classesFromArtifact.get(artifact).leases--);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+
+        private static final class IndexedArtifact {
+            private final int[] classIds;
+            private int leases = 0;
+            private long lastUsed = 0;
+
+            private IndexedArtifact(int[] classIds) {
+                this.classIds = classIds;
+            }
+        }
     }
 
     public static String ignoreCoordinate(String group, String name) {
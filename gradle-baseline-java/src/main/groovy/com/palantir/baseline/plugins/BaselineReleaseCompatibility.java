@@ -21,6 +21,8 @@ import java.util.Collections;
 import java.util.Optional;
 import org.gradle.api.JavaVersion;
 import org.gradle.api.Project;
+import org.gradle.api.plugins.JavaPluginConvention;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.compile.JavaCompile;
 import org.gradle.process.CommandLineArgumentProvider;
 import org.slf4j.Logger;
@@ -45,6 +47,20 @@ public final class BaselineReleaseCompatibility extends AbstractBaselinePlugin {
         });
     }
 
+    /**
+     * The Java release that the code of a java {@code project} targets, which is the oldest release it has to run on,
+     * and so the release whose classes it loads from multi-release jars.
+     */
+    static Provider<Integer> targetRelease(Project project) {
+        return project.provider(() -> release(project.getConvention()
+                .getPlugin(JavaPluginConvention.class)
+                .getTargetCompatibility()));
+    }
+
+    private static int release(JavaVersion javaVersion) {
+        return Integer.parseInt(javaVersion.getMajorVersion());
+    }
+
     // using a lazy argument provider is crucial because otherwise we'd try to read sourceCompat / targetCompat
     // before the user has even set it in their build.gradle!
     private static final class ReleaseFlagProvider implements CommandLineArgumentProvider {
@@ -87,7 +103,7 @@ public final class BaselineReleaseCompatibility extends AbstractBaselinePlugin {
                 return Collections.emptyList();
             }
 
-            return ImmutableList.of("--release", target.getMajorVersion());
+            return ImmutableList.of("--release", Integer.toString(release(target)));
         }
 
         // The --release flag was added in Java 9: https://openjdk.java.net/jeps/247
@@ -0,0 +1,87 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.plugins;
+
+import javax.annotation.Nullable;
+
+/**
+ * Converts the names of class file entries in jars, such as {@code com/foo/Bar$Inner.class}, to class names, such as
+ * {@code com.foo.Bar$Inner}. This is called for every entry of every jar on a classpath, so it copies each name once
+ * rather than going through regular expressions.
+ *
+ * <p>Entries of multi-release jars under {@code META-INF/versions/<release>/} are named after the class they replace,
+ * and {@link #release} tells them apart from the base entry.
+ */
+public final class ClassFileNames {
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+    private static final String MODULE_INFO = "module-info";
+
+    private ClassFileNames() {}
+
+    /** Returns the name of the class stored in the jar entry {@code entryName}, or null if it isn't a class file. */
+    @Nullable
+    public static String toClassName(String entryName) {
+        int end = entryName.length() - CLASS_SUFFIX.length();
+        if (!entryName.endsWith(CLASS_SUFFIX) || end == 0 || entryName.charAt(end - 1) == '/') {
+            return null;
+        }
+        int start = versionedClassStart(entryName);
+        char[] name = new char[end - start];
+        for (int i = start; i < end; i++) {
+            char character = entryName.charAt(i);
+            name[i - start] = character == '/' ? '.' : character;
+        }
+        return new String(name);
+    }
+
+    /**
+     * Returns the Java release that the multi-release jar entry {@code entryName} applies to, or 0 if it's a base
+     * entry used by all releases.
+     */
+    public static int release(String entryName) {
+        int start = versionedClassStart(entryName);
+        if (start == 0) {
+            return 0;
+        }
+        int release = 0;
+        for (int i = VERSIONS_PREFIX.length(); i < start - 1; i++) {
+            release = release * 10 + (entryName.charAt(i) - '0');
+        }
+        return release;
+    }
+
+    /** Whether {@code className} is a module descriptor, which every modular jar contains one of. */
+    public static boolean isModuleInfo(String className) {
+        return className.endsWith(MODULE_INFO);
+    }
+
+    /** Where the class name starts, after the {@code META-INF/versions/<release>/} of versioned entries. */
+    private static int versionedClassStart(String entryName) {
+        if (!entryName.startsWith(VERSIONS_PREFIX)) {
+            return 0;
+        }
+        int index = VERSIONS_PREFIX.length();
+        while (index < entryName.length() && entryName.charAt(index) >= '0' && entryName.charAt(index) <= '9') {
+            index++;
+        }
+        if (index == VERSIONS_PREFIX.length() || index == entryName.length() || entryName.charAt(index) != '/') {
+            return 0;
+        }
+        return index + 1;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.plugins;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Stores each distinct class name exactly once, as UTF-8 in a single shared byte array, and identifies it by a dense
+ * int id. This is far more compact than a {@link String} per class (each of which costs an object header, a separate
+ * backing array and usually a map entry), and lets callers refer to sets of classes as plain {@code int[]}s.
+ *
+ * <p>Names are looked up through an open-addressing hash table of ids, so no per-entry objects are allocated.
+ */
+@NotThreadSafe
+final class ClassNameTable {
+    private static final int NONE = -1;
+
+    private byte[] arena = new byte[64 * 1024];
+    private int arenaSize = 0;
+    /** The name with id {@code i} is stored in {@code arena[offsets[i]] .. arena[offsets[i + 1]]}. */
+    private int[] offsets = new int[1024 + 1];
+    private int size = 0;
+    /** Hash table of {@code id + 1}, where 0 marks an empty slot. Its length is always a power of two. */
+    private int[] slots = new int[2048];
+
+    /** Returns the id of {@code name}, adding it to the table if it is not already present. */
+    int intern(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int slot = findSlot(bytes);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        int id = append(bytes);
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return id;
+    }
+
+    /** Returns the id of {@code name}, or -1 if it has never been interned. */
+    int find(String name) {
+        int id = slots[findSlot(name.getBytes(StandardCharsets.UTF_8))];
+        return id == 0 ? NONE : id - 1;
+    }
+
+    String name(int id) {
+        return new String(arena, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** The approximate number of bytes retained by this table. */
+    long retainedBytes() {
+        return arena.length + 4L * offsets.length + 4L * slots.length;
+    }
+
+    private int append(byte[] bytes) {
+        if (arenaSize + bytes.length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + bytes.length));
+        }
+        System.arraycopy(bytes, 0, arena, arenaSize, bytes.length);
+        arenaSize += bytes.length;
+        if (size + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[size + 1] = arenaSize;
+        return size++;
+    }
+
+    /** The slot containing {@code bytes}, or otherwise the empty slot where it should be inserted. */
+    private int findSlot(byte[] bytes) {
+        int mask = slots.length - 1;
+        int slot = hash(bytes, 0, bytes.length) & mask;
+        while (slots[slot] != 0 && !matches(slots[slot] - 1, bytes)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean matches(int id, byte[] bytes) {
+        int offset = offsets[id];
+        int length = offsets[id + 1] - offset;
+        if (length != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (arena[offset + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        int[] newSlots = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hash(arena, offsets[id], offsets[id + 1]) & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = id + 1;
+        }
+        slots = newSlots;
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        // Spread the bits, as class names in the same package only differ in their last few bytes.
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.plugins;
+
+import com.palantir.baseline.tasks.ClassUniquenessScanner;
+import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Holds the {@link ClassUniquenessScanner} shared by all projects of a build, so jars that are on the classpath of
+ * many configurations and projects are only read once per build.
+ *
+ * <p>Build services require Gradle 6.1, so this class must only be loaded on recent enough versions of Gradle.
+ */
+public abstract class ClassUniquenessScannerService
+        implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+
+    private final ClassUniquenessScanner scanner = new ClassUniquenessScanner();
+
+    static Provider<ClassUniquenessScannerService> register(Project project) {
+        return project.getGradle()
+                .getSharedServices()
+                .registerIfAbsent("baselineClassUniquenessScanner", ClassUniquenessScannerService.class, spec -> {});
+    }
+
+    public final ClassUniquenessScanner getScanner() {
+        return scanner;
+    }
+
+    @Override
+    public final void close() {
+        scanner.shutdown();
+    }
+}
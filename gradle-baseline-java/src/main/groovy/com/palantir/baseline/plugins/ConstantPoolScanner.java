@@ -0,0 +1,502 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Finds the classes referenced by a class file by reading its constant pool, rather than visiting every instruction
+ * with ASM.
+ *
+ * <p>Every class a class file refers to is reachable from either a {@code CONSTANT_Class} entry, a member or method
+ * type descriptor in the constant pool, or a descriptor or generic signature attached to the class, its fields, its
+ * methods, their local variables and their (type) annotations. Everything else (i.e. the bytecode itself) is skipped
+ * without being decoded. The file is read into a per-thread buffer that is re-used for every class file, and constant
+ * pool strings are only decoded if they are used as a class name, descriptor or signature.
+ */
+final class ConstantPoolScanner {
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final ThreadLocal<ConstantPoolScanner> SCANNERS = ThreadLocal.withInitial(ConstantPoolScanner::new);
+
+    private byte[] bytes = new byte[16 * 1024];
+    private int[] utf8Offsets = new int[256];
+    private int[] classNames = new int[256];
+    private int[] descriptors = new int[256];
+    private char[] chars = new char[256];
+    private ByteBuffer buffer;
+    private Set<String> referencedClasses;
+
+    private ConstantPoolScanner() {}
+
+    static Set<String> referencedClasses(File classFile) throws IOException {
+        return SCANNERS.get().scan(classFile);
+    }
+
+    private Set<String> scan(File classFile) throws IOException {
+        int length = read(classFile);
+        buffer = ByteBuffer.wrap(bytes, 0, length);
+        referencedClasses = new HashSet<>();
+        try {
+            scanClassFile();
+        } catch (RuntimeException e) {
+            throw new IOException("Unable to parse class file " + classFile, e);
+        }
+        return referencedClasses;
+    }
+
+    private int read(File classFile) throws IOException {
+        long size = classFile.length();
+        if (size > bytes.length) {
+            bytes = new byte[Math.toIntExact(Math.max(size, bytes.length * 2L))];
+        }
+        int length = 0;
+        try (InputStream inputStream = Files.newInputStream(classFile.toPath())) {
+            int read;
+            while ((read = inputStream.read(bytes, length, bytes.length - length)) != -1) {
+                length += read;
+                if (length == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+            }
+        }
+        return length;
+    }
+
+    private void scanClassFile() {
+        if (buffer.getInt() != MAGIC) {
+            throw new IllegalStateException("Not a class file");
+        }
+        skip(4); // minor_version, major_version
+        int constantPoolCount = u2();
+        if (utf8Offsets.length < constantPoolCount) {
+            utf8Offsets = new int[constantPoolCount];
+            classNames = new int[constantPoolCount];
+            descriptors = new int[constantPoolCount];
+        }
+
+        // Class entries may refer to utf8 entries that appear later in the pool, so record which ones to resolve
+        // and resolve them once all utf8 offsets are known.
+        int classNameCount = 0;
+        int descriptorCount = 0;
+        for (int index = 1; index < constantPoolCount; index++) {
+            int tag = u1();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    int length = u2();
+                    utf8Offsets[index] = buffer.position();
+                    skip(length);
+                    break;
+                case CONSTANT_CLASS:
+                    classNames[classNameCount++] = u2();
+                    break;
+                case CONSTANT_NAME_AND_TYPE:
+                    skip(2); // name_index
+                    descriptors[descriptorCount++] = u2();
+                    break;
+                case CONSTANT_METHOD_TYPE:
+                    descriptors[descriptorCount++] = u2();
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    skip(2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    skip(3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    skip(4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    skip(8);
+                    // 8-byte constants take up two entries in the constant pool
+                    index++;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        for (int i = 0; i < classNameCount; i++) {
+            String name = utf8(classNames[i]);
+            if (name.startsWith("[")) {
+                // array classes are represented by their descriptor
+                signature(name);
+            } else {
+                addInternalName(name);
+            }
+        }
+        for (int i = 0; i < descriptorCount; i++) {
+            signature(utf8(descriptors[i]));
+        }
+
+        skip(6); // access_flags, this_class, super_class
+        skip(2 * u2()); // interfaces, which are CONSTANT_Class entries
+        scanMembers(); // fields
+        scanMembers(); // methods
+        scanAttributes();
+    }
+
+    private void scanMembers() {
+        int count = u2();
+        for (int i = 0; i < count; i++) {
+            skip(4); // access_flags, name_index
+            signature(utf8(u2()));
+            scanAttributes();
+        }
+    }
+
+    private void scanAttributes() {
+        int count = u2();
+        for (int i = 0; i < count; i++) {
+            String name = utf8(u2());
+            int length = buffer.getInt();
+            int end = buffer.position() + length;
+            switch (name) {
+                case "Signature":
+                    signature(utf8(u2()));
+                    break;
+                case "Code":
+                    skip(4); // max_stack, max_locals
+                    skip(buffer.getInt()); // code
+                    skip(8 * u2()); // exception_table, whose catch types are CONSTANT_Class entries
+                    scanAttributes();
+                    break;
+                case "LocalVariableTable":
+                case "LocalVariableTypeTable":
+                    int localVariables = u2();
+                    for (int local = 0; local < localVariables; local++) {
+                        skip(6); // start_pc, length, name_index
+                        signature(utf8(u2()));
+                        skip(2); // index
+                    }
+                    break;
+                case "RuntimeVisibleAnnotations":
+                case "RuntimeInvisibleAnnotations":
+                    annotations();
+                    break;
+                case "RuntimeVisibleParameterAnnotations":
+                case "RuntimeInvisibleParameterAnnotations":
+                    int parameters = u1();
+                    for (int parameter = 0; parameter < parameters; parameter++) {
+                        annotations();
+                    }
+                    break;
+                case "RuntimeVisibleTypeAnnotations":
+                case "RuntimeInvisibleTypeAnnotations":
+                    int typeAnnotations = u2();
+                    for (int typeAnnotation = 0; typeAnnotation < typeAnnotations; typeAnnotation++) {
+                        skipTypeAnnotationTarget();
+                        annotation();
+                    }
+                    break;
+                case "AnnotationDefault":
+                    elementValue();
+                    break;
+                default:
+                    break;
+            }
+            buffer.position(end);
+        }
+    }
+
+    private void annotations() {
+        int count = u2();
+        for (int i = 0; i < count; i++) {
+            annotation();
+        }
+    }
+
+    private void annotation() {
+        signature(utf8(u2()));
+        int pairs = u2();
+        for (int i = 0; i < pairs; i++) {
+            skip(2); // element_name_index
+            elementValue();
+        }
+    }
+
+    /** Skips the target_type, target_info and type_path of a type_annotation, see JVMS 4.7.20. */
+    private void skipTypeAnnotationTarget() {
+        int targetType = u1();
+        switch (targetType) {
+            case 0x00: // type_parameter_target
+            case 0x01:
+            case 0x16: // formal_parameter_target
+                skip(1);
+                break;
+            case 0x10: // supertype_target
+            case 0x17: // throws_target
+            case 0x42: // catch_target
+            case 0x43: // offset_target
+            case 0x44:
+            case 0x45:
+            case 0x46:
+                skip(2);
+                break;
+            case 0x11: // type_parameter_bound_target
+            case 0x12:
+                skip(2);
+                break;
+            case 0x13: // empty_target
+            case 0x14:
+            case 0x15:
+                break;
+            case 0x40: // localvar_target
+            case 0x41:
+                skip(6 * u2());
+                break;
+            case 0x47: // type_argument_target
+            case 0x48:
+            case 0x49:
+            case 0x4A:
+            case 0x4B:
+                skip(3);
+                break;
+            default:
+                throw new IllegalStateException("Unknown type annotation target " + targetType);
+        }
+        skip(2 * u1()); // type_path
+    }
+
+    private void elementValue() {
+        int tag = u1();
+        switch (tag) {
+            case 'e':
+                signature(utf8(u2()));
+                skip(2); // const_name_index
+                break;
+            case 'c':
+                signature(utf8(u2()));
+                break;
+            case '@':
+                annotation();
+                break;
+            case '[':
+                int values = u2();
+                for (int i = 0; i < values; i++) {
+                    elementValue();
+                }
+                break;
+            default:
+                skip(2); // const_value_index
+                break;
+        }
+    }
+
+    /**
+     * Decodes a {@code CONSTANT_Utf8} entry, which is in the modified UTF-8 of {@link java.io.DataInput#readUTF}
+     * rather than standard UTF-8: {@code NUL} is encoded in two bytes, and supplementary characters as the two
+     * three-byte encodings of their surrogates (JVMS 4.4.7).
+     */
+    private String utf8(int index) {
+        int offset = utf8Offsets[index];
+        int end = offset + (((bytes[offset - 2] & 0xFF) << 8) | (bytes[offset - 1] & 0xFF));
+        // every byte decodes to at most one char
+        if (chars.length < end - offset) {
+            chars = new char[end - offset];
+        }
+        int count = 0;
+        int pos = offset;
+        while (pos < end) {
+            int first = bytes[pos++] & 0xFF;
+            if (first < 0x80) {
+                chars[count++] = (char) first;
+            } else if ((first & 0xE0) == 0xC0) {
+                chars[count++] = (char) (((first & 0x1F) << 6) | (bytes[pos++] & 0x3F));
+            } else if ((first & 0xF0) == 0xE0) {
+                chars[count++] =
+                        (char) (((first & 0x0F) << 12) | ((bytes[pos++] & 0x3F) << 6) | (bytes[pos++] & 0x3F));
+            } else {
+                throw new IllegalStateException("Malformed modified UTF-8 in constant pool entry " + index);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private void addInternalName(String internalName) {
+        referencedClasses.add(internalName.replace('/', '.'));
+    }
+
+    /** Reports every class named by a field descriptor, method descriptor, or generic signature. */
+    private void signature(String signature) {
+        new SignatureParser(signature).parse();
+    }
+
+    private int u1() {
+        return buffer.get() & 0xFF;
+    }
+
+    private int u2() {
+        return buffer.getShort() & 0xFFFF;
+    }
+
+    private void skip(int count) {
+        buffer.position(buffer.position() + count);
+    }
+
+    /** A parser for the grammar in JVMS 4.7.9.1, of which descriptors are a subset. */
+    private final class SignatureParser {
+        private final String signature;
+        private int pos;
+
+        private SignatureParser(String signature) {
+            this.signature = signature;
+        }
+
+        void parse() {
+            if (signature.isEmpty()) {
+                return;
+            }
+            if (peek() == '<') {
+                formalTypeParameters();
+            }
+            if (peek() == '(') {
+                pos++;
+                while (peek() != ')') {
+                    typeSignature();
+                }
+                pos++;
+                typeSignature();
+                while (pos < signature.length() && peek() == '^') {
+                    pos++;
+                    typeSignature();
+                }
+            } else {
+                // A field type, or a class signature consisting of a superclass and interfaces
+                while (pos < signature.length()) {
+                    typeSignature();
+                }
+            }
+        }
+
+        private void formalTypeParameters() {
+            pos++;
+            while (peek() != '>') {
+                pos = signature.indexOf(':', pos) + 1;
+                // the class bound may be empty if there are only interface bounds
+                if (peek() != ':') {
+                    typeSignature();
+                }
+                while (peek() == ':') {
+                    pos++;
+                    typeSignature();
+                }
+            }
+            pos++;
+        }
+
+        private void typeSignature() {
+            char next = signature.charAt(pos);
+            if (next == 'L') {
+                classTypeSignature();
+            } else if (next == 'T') {
+                pos = signature.indexOf(';', pos) + 1;
+            } else if (next == '[') {
+                pos++;
+                typeSignature();
+            } else {
+                // primitive types and void
+                pos++;
+            }
+        }
+
+        private void classTypeSignature() {
+            pos++;
+            String className = identifier();
+            addInternalName(className);
+            while (true) {
+                char next = signature.charAt(pos);
+                if (next == '<') {
+                    typeArguments();
+                } else if (next == '.') {
+                    pos++;
+                    className = className + '$' + identifier();
+                    addInternalName(className);
+                } else {
+                    // ';'
+                    pos++;
+                    return;
+                }
+            }
+        }
+
+        private void typeArguments() {
+            pos++;
+            while (peek() != '>') {
+                char next = peek();
+                if (next == '*') {
+                    pos++;
+                } else {
+                    if (next == '+' || next == '-') {
+                        pos++;
+                    }
+                    typeSignature();
+                }
+            }
+            pos++;
+        }
+
+        private String identifier() {
+            int start = pos;
+            while (true) {
+                char next = signature.charAt(pos);
+                if (next == ';' || next == '<' || next == '.') {
+                    return signature.substring(start, pos);
+                }
+                pos++;
+            }
+        }
+
+        private char peek() {
+            return signature.charAt(pos);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.plugins;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.gradle.api.artifacts.ResolvedArtifact;
+
+/**
+ * Which artifacts are used by which source sets of a project, computed in a single pass over the classes referenced
+ * by all of them: each referenced class is only mapped to the artifact containing it once, however many source sets
+ * reference it. Each artifact then has a bitset of the source sets that use it.
+ */
+public final class DependencyUsageMatrix {
+    private final List<String> sourceSets;
+    private final Map<ResolvedArtifact, BitSet> usedBySourceSets;
+
+    private DependencyUsageMatrix(List<String> sourceSets, Map<ResolvedArtifact, BitSet> usedBySourceSets) {
+        this.sourceSets = sourceSets;
+        this.usedBySourceSets = usedBySourceSets;
+    }
+
+    /** The given indexes must contain all artifacts that may contain any of the referenced classes. */
+    public static DependencyUsageMatrix compute(
+            BaselineExactDependencies.Indexes indexes, Map<String, Set<String>> referencedClassesBySourceSet) {
+        List<String> sourceSets = new ArrayList<>(referencedClassesBySourceSet.keySet());
+        Map<String, BitSet> referencedBySourceSets = new HashMap<>();
+        for (int sourceSet = 0; sourceSet < sourceSets.size(); sourceSet++) {
+            for (String clazz : referencedClassesBySourceSet.get(sourceSets.get(sourceSet))) {
+                referencedBySourceSets
+                        .computeIfAbsent(clazz, _clazz -> new BitSet())
+                        .set(sourceSet);
+            }
+        }
+
+        Map<ResolvedArtifact, BitSet> usedBySourceSets = new HashMap<>();
+        referencedBySourceSets.forEach((clazz, referencedBy) -> indexes.classToDependency(clazz)
+                .ifPresent(artifact -> usedBySourceSets
+                        .computeIfAbsent(artifact, _artifact -> new BitSet())
+                        .or(referencedBy)));
+        return new DependencyUsageMatrix(sourceSets, usedBySourceSets);
+    }
+
+    /** The artifacts containing any class referenced by the given source set. */
+    public Set<ResolvedArtifact> usedArtifacts(String sourceSet) {
+        int index = sourceSets.indexOf(sourceSet);
+        Preconditions.checkArgument(index >= 0, "Unknown source set %s", sourceSet);
+        return usedBySourceSets.entrySet().stream()
+                .filter(entry -> entry.getValue().get(index))
+                .map(Map.Entry::getKey)
+                .collect(ImmutableSet.toImmutableSet());
+    }
+}
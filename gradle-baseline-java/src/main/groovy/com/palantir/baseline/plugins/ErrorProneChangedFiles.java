@@ -0,0 +1,105 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.plugins;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.palantir.baseline.util.GitUtils;
+import java.io.File;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import net.ltgt.gradle.errorprone.ErrorProneOptions;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.tasks.compile.JavaCompile;
+import org.gradle.process.CommandLineArgumentProvider;
+
+/**
+ * Only runs error-prone on the files that git says have changed, which is much faster for local builds of large
+ * projects where only a few files have been touched. Everything is still compiled.
+ *
+ * <p>Enabled with {@code -Pcom.palantir.baseline-error-prone.changed-files-only}, which compares with {@code HEAD},
+ * or with {@code -Pcom.palantir.baseline-error-prone.changed-files-only=<revision>} to compare with another revision
+ * such as the branch being merged into. It's ignored on CI (whenever the {@code CI} environment variable is set),
+ * where every file is checked.
+ */
+final class ErrorProneChangedFiles {
+    static final String CHANGED_FILES_ONLY_PROPERTY = "com.palantir.baseline-error-prone.changed-files-only";
+    private static final Logger log = Logging.getLogger(ErrorProneChangedFiles.class);
+    private static final String DEFAULT_BASE_REVISION = "HEAD";
+
+    private ErrorProneChangedFiles() {}
+
+    static boolean isEnabled(Project project) {
+        return project.hasProperty(CHANGED_FILES_ONLY_PROPERTY) && System.getenv("CI") == null;
+    }
+
+    /** Git is only asked for the changed files of each project once, however many source sets it has. */
+    static Supplier<Optional<Set<File>>> changedFiles(Project project) {
+        String baseRevision = Optional.ofNullable(project.findProperty(CHANGED_FILES_ONLY_PROPERTY))
+                .map(Objects::toString)
+                .map(Strings::emptyToNull)
+                .filter(value -> !value.equals("true"))
+                .orElse(DEFAULT_BASE_REVISION);
+        return Suppliers.memoize(() -> {
+            Optional<Set<File>> changedFiles = GitUtils.changedFiles(project.getProjectDir(), baseRevision);
+            if (!changedFiles.isPresent()) {
+                log.warn("Running error-prone on all files of {}, as git couldn't list its changed files", project);
+            }
+            return changedFiles;
+        });
+    }
+
+    static void configure(
+            JavaCompile javaCompile, ErrorProneOptions errorProneOptions, Supplier<Optional<Set<File>>> changedFiles) {
+        // The files which are checked depend on the state of git rather than the inputs of the task, so its outputs
+        // mustn't be reused by builds which check every file.
+        javaCompile.getOutputs().cacheIf(t -> false);
+
+        // Error-prone uses the last excluded paths it's given, so this replaces the paths set in the options. This
+        // isn't an input either, so changing a file doesn't force a full recompilation.
+        errorProneOptions.getErrorproneArgumentProviders().add(new CommandLineArgumentProvider() {
+            // intentionally not using a lambda to reduce gradle warnings
+            @Override
+            public Iterable<String> asArguments() {
+                Optional<Set<File>> files = changedFiles.get();
+                if (!files.isPresent()) {
+                    return ImmutableList.of();
+                }
+                return ImmutableList.of("-XepExcludedPaths:"
+                        + excludedPaths(errorProneOptions.getExcludedPaths().getOrNull(), files.get()));
+            }
+        });
+    }
+
+    /** Excludes all files that are already excluded, and any files which haven't changed. */
+    static String excludedPaths(String alreadyExcluded, Set<File> changedFiles) {
+        String unchanged = changedFiles.isEmpty()
+                ? ".*"
+                : changedFiles.stream()
+                        .map(file -> Pattern.quote(file.getAbsolutePath()))
+                        .sorted()
+                        .collect(Collectors.joining("|", "(?!(?:", ")$).*"));
+        return Strings.isNullOrEmpty(alreadyExcluded) ? unchanged : "(?:" + alreadyExcluded + ")|" + unchanged;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.plugins;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import net.ltgt.gradle.errorprone.CheckSeverity;
+import net.ltgt.gradle.errorprone.ErrorProneOptions;
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * Checks which can only find problems in code that uses a particular library, and the modules which provide that
+ * library, as either {@code group:module} or just {@code group} for any module in the group. Error-prone runs the
+ * matchers of every enabled check on every tree whether or not the library is there, so each check is turned off for
+ * compile tasks whose classpath contains none of its modules.
+ */
+final class ErrorProneCheckRequirements {
+    private static final Logger log = Logging.getLogger(ErrorProneCheckRequirements.class);
+
+    private static final ImmutableSetMultimap<String, String> REQUIRED_MODULES =
+            ImmutableSetMultimap.<String, String>builder()
+                    .put("DangerousJsonTypeInfoUsage", "com.fasterxml.jackson.core:jackson-annotations")
+                    .put("ImmutablesBuilderMissingInitialization", "org.immutables")
+                    .put("ImmutablesStyleCollision", "org.immutables")
+                    .putAll(
+                            "JooqResultStreamLeak",
+                            "org.jooq:jooq",
+                            "org.jooq.pro:jooq",
+                            "org.jooq.pro-java-8:jooq",
+                            "org.jooq.pro-java-11:jooq",
+                            "org.jooq.trial:jooq")
+                    .put("JUnit5RuleUsage", "org.junit.jupiter:junit-jupiter-api")
+                    .put("JUnit5SuiteMisuse", "org.junit.jupiter:junit-jupiter-api")
+                    .put("LoggerEnclosingClass", "org.slf4j:slf4j-api")
+                    .put("LogsafeArgName", "com.palantir.safe-logging:safe-logging")
+                    .put("PreferSafeLoggableExceptions", "com.palantir.safe-logging:preconditions")
+                    .put("PreferSafeLoggingPreconditions", "com.palantir.safe-logging:preconditions")
+                    .put("PreventTokenLogging", "com.palantir.tokens")
+                    .put("Slf4jConstantLogMessage", "org.slf4j:slf4j-api")
+                    .put("Slf4jLevelCheck", "org.slf4j:slf4j-api")
+                    .put("Slf4jLogsafeArgs", "org.slf4j:slf4j-api")
+                    .put("Slf4jThrowable", "org.slf4j:slf4j-api")
+                    .put("UnsafeGaugeRegistration", "com.palantir.tritium")
+                    .build();
+
+    private ErrorProneCheckRequirements() {}
+
+    /**
+     * Turns off checks whose modules are missing from {@code compileClasspath}. Checks configured afterwards, such as
+     * by the build script, take precedence, so a check can still be turned back on.
+     */
+    static void configure(Project project, ErrorProneOptions errorProneOptions, Configuration compileClasspath) {
+        errorProneOptions.getChecks().putAll(project.provider(() -> checksToDisable(compileClasspath)));
+    }
+
+    static Map<String, CheckSeverity> checksToDisable(Configuration compileClasspath) {
+        Set<String> modules = new HashSet<>();
+        compileClasspath.getIncoming().getResolutionResult().getAllComponents().forEach(component -> {
+            if (component.getId() instanceof ModuleComponentIdentifier) {
+                ModuleComponentIdentifier id = (ModuleComponentIdentifier) component.getId();
+                modules.add(id.getGroup());
+                modules.add(id.getGroup() + ':' + id.getModule());
+            }
+        });
+
+        ImmutableMap.Builder<String, CheckSeverity> checksToDisable = ImmutableMap.builder();
+        REQUIRED_MODULES.asMap().forEach((check, requiredModules) -> {
+            if (requiredModules.stream().noneMatch(modules::contains)) {
+                log.info("Disabling check {} as none of {} are in {}", check, requiredModules, compileClasspath);
+                checksToDisable.put(check, CheckSeverity.OFF);
+            }
+        });
+        return checksToDisable.build();
+    }
+}
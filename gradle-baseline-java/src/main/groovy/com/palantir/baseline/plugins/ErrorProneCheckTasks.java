@@ -0,0 +1,149 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.plugins;
+
+import com.google.common.base.CaseFormat;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import net.ltgt.gradle.errorprone.ErrorProneOptions;
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.plugins.ExtensionAware;
+import org.gradle.api.plugins.JavaBasePlugin;
+import org.gradle.api.plugins.JavaPluginConvention;
+import org.gradle.api.tasks.SourceSetContainer;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.api.tasks.compile.CompileOptions;
+import org.gradle.api.tasks.compile.ForkOptions;
+import org.gradle.api.tasks.compile.JavaCompile;
+import org.gradle.process.CommandLineArgumentProvider;
+import org.gradle.util.GradleVersion;
+
+/**
+ * Runs error-prone in an {@code errorProneCheck<SourceSet>} task for each source set, rather than inside its
+ * {@code compileJava} task, so that compilation isn't slowed down by the checks and downstream projects can start
+ * compiling as soon as their dependencies have been compiled. The check tasks are {@link JavaCompile} tasks which
+ * compile the same sources into a directory of their own, so they're cacheable, pick up any configuration of
+ * error-prone that's applied to all {@link JavaCompile} tasks, and are run by {@code check}.
+ *
+ * <p>Enabled with {@code -Pcom.palantir.baseline-error-prone.separate-tasks}. Patches are still applied by the
+ * compile tasks when refactoring with {@code -PerrorProneApply} or {@code -PrefasterApply}.
+ */
+final class ErrorProneCheckTasks {
+    static final String SEPARATE_TASKS_PROPERTY = "com.palantir.baseline-error-prone.separate-tasks";
+    private static final String ERROR_PRONE_PACKAGE = ErrorProneOptions.class.getPackage().getName() + ".";
+
+    private ErrorProneCheckTasks() {}
+
+    static boolean isEnabled(Project project) {
+        return project.hasProperty(SEPARATE_TASKS_PROPERTY) && !BaselineErrorProne.isRefactoring(project);
+    }
+
+    /** Whether error-prone runs in a check task of its own rather than in this compile task. */
+    static boolean isCheckedSeparately(Project project, JavaCompile javaCompile) {
+        return isEnabled(project)
+                && sourceSets(project).stream()
+                        .anyMatch(sourceSet -> sourceSet.getCompileJavaTaskName().equals(javaCompile.getName()));
+    }
+
+    static void register(Project project) {
+        sourceSets(project).configureEach(sourceSet -> {
+            TaskProvider<JavaCompile> compileJava =
+                    project.getTasks().named(sourceSet.getCompileJavaTaskName(), JavaCompile.class);
+            String name = "errorProneCheck" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, sourceSet.getName());
+            File outputDir = new File(project.getBuildDir(), "error-prone/" + sourceSet.getName());
+            TaskProvider<JavaCompile> errorProneCheck =
+                    project.getTasks().register(name, JavaCompile.class, task -> {
+                        task.setGroup(JavaBasePlugin.VERIFICATION_GROUP);
+                        task.setDescription("Runs error-prone on the " + sourceSet.getName() + " Java source.");
+                        configureLike(task, compileJava.get(), outputDir);
+                        Configuration compileClasspath = project.getConfigurations()
+                                .getByName(sourceSet.getCompileClasspathConfigurationName());
+                        ErrorProneCheckRequirements.configure(project, errorProneOptions(task), compileClasspath);
+                    });
+            project.getTasks()
+                    .named(JavaBasePlugin.CHECK_TASK_NAME)
+                    .configure(check -> check.dependsOn(errorProneCheck));
+        });
+    }
+
+    /** Compiles exactly what {@code compileJava} compiles, but writes the classes somewhere else. */
+    private static void configureLike(JavaCompile task, JavaCompile compileJava, File outputDir) {
+        task.setSource(compileJava.getSource());
+        task.setClasspath(compileJava.getClasspath());
+        task.setSourceCompatibility(compileJava.getSourceCompatibility());
+        task.setTargetCompatibility(compileJava.getTargetCompatibility());
+        task.setDestinationDir(new File(outputDir, "classes"));
+        task.getOptions().setAnnotationProcessorPath(compileJava.getOptions().getAnnotationProcessorPath());
+        task.getOptions().setAnnotationProcessorGeneratedSourcesDirectory(new File(outputDir, "generated"));
+        task.getOptions().setEncoding(compileJava.getOptions().getEncoding());
+        task.getOptions().setBootstrapClasspath(compileJava.getOptions().getBootstrapClasspath());
+        task.getOptions().setSourcepath(compileJava.getOptions().getSourcepath());
+        task.getOptions().setCompilerArgs(new ArrayList<>(compileJava.getOptions().getCompilerArgs()));
+        task.getOptions().getCompilerArgumentProviders().add(new CommandLineArgumentProvider() {
+            // intentionally not using a lambda to reduce gradle warnings
+            @Override
+            public Iterable<String> asArguments() {
+                return compileTaskArguments(compileJava);
+            }
+        });
+        if (GradleVersion.current().compareTo(GradleVersion.version("6.6")) >= 0) {
+            task.getOptions().getRelease().set(compileJava.getOptions().getRelease());
+        }
+        if (GradleVersion.current().compareTo(GradleVersion.version("6.4")) >= 0) {
+            task.getModularity().getInferModulePath().set(compileJava.getModularity().getInferModulePath());
+        }
+        copyForkOptions(task.getOptions(), compileJava.getOptions());
+
+        ErrorProneOptions compileJavaOptions = errorProneOptions(compileJava);
+        ErrorProneOptions taskOptions = errorProneOptions(task);
+        taskOptions.getCompilingTestOnlyCode().set(compileJavaOptions.getCompilingTestOnlyCode());
+    }
+
+    /**
+     * The arguments of the providers which were added to {@code compileJava}, except for error-prone's own, which it
+     * adds to every {@link JavaCompile} task and so is already on the check task.
+     */
+    private static List<String> compileTaskArguments(JavaCompile compileJava) {
+        List<String> arguments = new ArrayList<>();
+        compileJava.getOptions().getCompilerArgumentProviders().stream()
+                .filter(provider -> !provider.getClass().getName().startsWith(ERROR_PRONE_PACKAGE))
+                .forEach(provider -> provider.asArguments().forEach(arguments::add));
+        return arguments;
+    }
+
+    private static void copyForkOptions(CompileOptions options, CompileOptions compileJavaOptions) {
+        ForkOptions forkOptions = options.getForkOptions();
+        ForkOptions compileJavaForkOptions = compileJavaOptions.getForkOptions();
+        options.setFork(compileJavaOptions.isFork());
+        forkOptions.setJavaHome(compileJavaForkOptions.getJavaHome());
+        forkOptions.setExecutable(compileJavaForkOptions.getExecutable());
+        forkOptions.setTempDir(compileJavaForkOptions.getTempDir());
+        forkOptions.setMemoryInitialSize(compileJavaForkOptions.getMemoryInitialSize());
+        forkOptions.setMemoryMaximumSize(compileJavaForkOptions.getMemoryMaximumSize());
+        forkOptions.setJvmArgs(new ArrayList<>(compileJavaForkOptions.getJvmArgs()));
+    }
+
+    private static ErrorProneOptions errorProneOptions(JavaCompile javaCompile) {
+        return ((ExtensionAware) javaCompile.getOptions()).getExtensions().getByType(ErrorProneOptions.class);
+    }
+
+    private static SourceSetContainer sourceSets(Project project) {
+        return project.getConvention().getPlugin(JavaPluginConvention.class).getSourceSets();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.plugins;
+
+import com.palantir.baseline.tasks.ApplyErrorPronePatchesTask;
+import java.io.File;
+import org.gradle.api.Action;
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.tasks.TaskContainer;
+import org.gradle.api.tasks.compile.JavaCompile;
+
+/**
+ * Makes refactoring builds write error-prone's patches to {@code build/error-prone-patches/<task>/error-prone.patch}
+ * rather than changing the sources while they're being compiled. The patches are applied by the
+ * {@code errorProneApplyPatches} task of the root project once every compile task has finished, so compile tasks of
+ * different projects can run in parallel and be loaded from the build cache.
+ *
+ * <p>Enabled with {@code -Pcom.palantir.baseline-error-prone.patch-out-of-place} alongside {@code -PerrorProneApply}
+ * or {@code -PrefasterApply}.
+ */
+final class ErrorPronePatching {
+    static final String OUT_OF_PLACE_PROPERTY = "com.palantir.baseline-error-prone.patch-out-of-place";
+    private static final String APPLY_TASK_NAME = "errorProneApplyPatches";
+
+    private ErrorPronePatching() {}
+
+    static boolean isOutOfPlace(Project project) {
+        return project.hasProperty(OUT_OF_PLACE_PROPERTY);
+    }
+
+    /** Every project's patches are applied by the same task, which must exist before the compile tasks are created. */
+    static ApplyErrorPronePatchesTask applyTask(Project project) {
+        TaskContainer rootTasks = project.getRootProject().getTasks();
+        synchronized (rootTasks) {
+            Task existing = rootTasks.findByName(APPLY_TASK_NAME);
+            return existing != null
+                    ? (ApplyErrorPronePatchesTask) existing
+                    : rootTasks.create(APPLY_TASK_NAME, ApplyErrorPronePatchesTask.class);
+        }
+    }
+
+    /** Returns the directory which error-prone should write the patch for {@code javaCompile} to. */
+    static File configure(Project project, JavaCompile javaCompile) {
+        File patchDir = new File(project.getBuildDir(), "error-prone-patches/" + javaCompile.getName());
+        javaCompile.getOutputs().dir(patchDir).withPropertyName("errorPronePatches");
+        // Error-prone appends to the patch as it goes, so a patch from a previous build must be removed first
+        javaCompile.doFirst(new Action<Task>() {
+            @Override
+            public void execute(Task task) {
+                project.delete(patchDir);
+                patchDir.mkdirs();
+            }
+        });
+
+        ApplyErrorPronePatchesTask applyTask = applyTask(project);
+        applyTask.patchFile(javaCompile, new File(patchDir, "error-prone.patch"));
+        javaCompile.finalizedBy(applyTask);
+        return patchDir;
+    }
+}
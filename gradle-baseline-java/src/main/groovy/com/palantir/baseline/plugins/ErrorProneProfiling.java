@@ -0,0 +1,145 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.plugins;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.gradle.api.Action;
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.plugins.ExtraPropertiesExtension;
+import org.gradle.api.tasks.compile.JavaCompile;
+import org.gradle.process.CommandLineArgumentProvider;
+
+/**
+ * Records how long each error-prone check takes in every {@link JavaCompile} task, using the
+ * {@code BaselineErrorProneProfiler} compiler plugin from {@code baseline-error-prone}. Each task writes a report to
+ * {@code build/reports/error-prone-profile/<task>.tsv}, and the reports of all tasks that ran are added up in
+ * {@code build/reports/error-prone-profile.tsv} of the root project at the end of the build.
+ *
+ * <p>Reports are tab-separated lines of check name and cumulative nanoseconds, slowest check first.
+ */
+final class ErrorProneProfiling {
+    static final String PROFILE_PROPERTY = "com.palantir.baseline-error-prone.profile";
+    private static final Logger log = Logging.getLogger(ErrorProneProfiling.class);
+    private static final String AGGREGATE = "baselineErrorProneProfile";
+
+    private final Map<String, Long> nanosByCheck = new HashMap<>();
+
+    private ErrorProneProfiling() {}
+
+    static boolean isEnabled(Project project) {
+        return project.hasProperty(PROFILE_PROPERTY);
+    }
+
+    static void configure(Project project, JavaCompile javaCompile) {
+        File report = new File(project.getBuildDir(), "reports/error-prone-profile/" + javaCompile.getName() + ".tsv");
+        javaCompile.getOptions().getCompilerArgumentProviders().add(new CommandLineArgumentProvider() {
+            // intentionally not using a lambda to reduce gradle warnings
+            @Override
+            public Iterable<String> asArguments() {
+                return ImmutableList.of("-Xplugin:BaselineErrorProneProfiler --out " + report.getAbsolutePath());
+            }
+        });
+
+        // Timings are only meaningful if the code is actually compiled
+        javaCompile.getOutputs().upToDateWhen(t -> false);
+        javaCompile.getOutputs().cacheIf(t -> false);
+
+        ErrorProneProfiling aggregate = forBuild(project.getRootProject());
+        javaCompile.doFirst(new Action<Task>() {
+            @Override
+            public void execute(Task task) {
+                project.delete(report);
+            }
+        });
+        javaCompile.doLast(new Action<Task>() {
+            @Override
+            public void execute(Task task) {
+                if (report.exists()) {
+                    aggregate.add(read(report));
+                    log.info("Wrote error-prone profile to {}", report);
+                }
+            }
+        });
+    }
+
+    /** Every project adds to the same profile, which is written once all of their tasks have finished. */
+    private static ErrorProneProfiling forBuild(Project rootProject) {
+        ExtraPropertiesExtension rootProperties = rootProject.getExtensions().getExtraProperties();
+        synchronized (rootProperties) {
+            if (!rootProperties.has(AGGREGATE)) {
+                ErrorProneProfiling aggregate = new ErrorProneProfiling();
+                File report = new File(rootProject.getBuildDir(), "reports/error-prone-profile.tsv");
+                rootProject.getGradle().buildFinished(result -> aggregate.writeTo(report));
+                rootProperties.set(AGGREGATE, aggregate);
+            }
+            return (ErrorProneProfiling) rootProperties.get(AGGREGATE);
+        }
+    }
+
+    private synchronized void add(Map<String, Long> profile) {
+        profile.forEach((check, nanos) -> nanosByCheck.merge(check, nanos, Long::sum));
+    }
+
+    private synchronized void writeTo(File report) {
+        if (nanosByCheck.isEmpty()) {
+            return;
+        }
+        write(nanosByCheck, report);
+        log.lifecycle("Wrote error-prone profile of the whole build to {}", report);
+    }
+
+    static Map<String, Long> read(File report) {
+        try {
+            Map<String, Long> profile = new HashMap<>();
+            for (String line : Files.readAllLines(report.toPath(), StandardCharsets.UTF_8)) {
+                List<String> columns = Splitter.on('\t').splitToList(line);
+                if (columns.size() == 2) {
+                    profile.put(columns.get(0), Long.parseLong(columns.get(1)));
+                }
+            }
+            return profile;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read error-prone profile " + report, e);
+        }
+    }
+
+    static void write(Map<String, Long> profile, File report) {
+        List<String> lines = profile.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .map(entry -> entry.getKey() + '\t' + entry.getValue())
+                .collect(Collectors.toList());
+        try {
+            Files.createDirectories(report.toPath().getParent());
+            Files.write(report.toPath(), lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write error-prone profile " + report, e);
+        }
+    }
+}
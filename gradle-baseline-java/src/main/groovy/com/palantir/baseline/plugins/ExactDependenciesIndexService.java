@@ -0,0 +1,64 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.plugins;
+
+import org.gradle.api.Project;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Holds the {@link BaselineExactDependencies.Indexes} shared by all projects of a build. Gradle discards the service
+ * at the end of the build, so a long-lived daemon doesn't accumulate the classes of every jar it has ever seen; the
+ * {@link JarClassIndexCache} keeps re-indexing the same jars in the next build cheap.
+ *
+ * <p>Build services require Gradle 6.1, so this class must only be loaded on recent enough versions of Gradle.
+ */
+public abstract class ExactDependenciesIndexService
+        implements BuildService<ExactDependenciesIndexService.Params>, AutoCloseable {
+
+    private final BaselineExactDependencies.Indexes indexes;
+
+    public interface Params extends BuildServiceParameters {
+        Property<Integer> getMaxIndexedClasses();
+    }
+
+    public ExactDependenciesIndexService() {
+        this.indexes = new BaselineExactDependencies.Indexes(
+                Runtime.getRuntime().availableProcessors(),
+                getParameters().getMaxIndexedClasses().get());
+    }
+
+    static Provider<ExactDependenciesIndexService> register(Project project, int maxIndexedClasses) {
+        return project.getGradle()
+                .getSharedServices()
+                .registerIfAbsent(
+                        "baselineExactDependenciesIndexes",
+                        ExactDependenciesIndexService.class,
+                        spec -> spec.getParameters().getMaxIndexedClasses().set(maxIndexedClasses));
+    }
+
+    public final BaselineExactDependencies.Indexes getIndexes() {
+        return indexes;
+    }
+
+    @Override
+    public final void close() {
+        indexes.shutdown();
+    }
+}
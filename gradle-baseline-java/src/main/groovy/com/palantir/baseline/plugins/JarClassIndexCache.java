@@ -0,0 +1,451 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.plugins;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.concurrent.ThreadSafe;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * A machine-wide, on-disk cache of the class names contained in a jar, keyed by the jar's path, size and modification
+ * time. It also stores the content hashes of those entries of a jar which the class uniqueness check has needed so far.
+ *
+ * <p>Resolved Maven jars are immutable, so once any daemon on this machine has listed the classes of a jar, every
+ * other daemon (including ones started after a restart) can look the result up instead of scanning the jar again.
+ * Looking an entry up only needs the jar's metadata, as reading the whole jar to hash its contents would cost more
+ * than listing its classes from the central directory. A jar that is changed in place gets a new entry, since its
+ * size or modification time change along with it.
+ * Each jar gets its own file, written to a temporary file and atomically moved into place, so concurrent daemons only
+ * ever observe complete entries. The total size of the cache is bounded by evicting the least recently used entries.
+ */
+@ThreadSafe
+public final class JarClassIndexCache {
+    private static final Logger log = Logging.getLogger(JarClassIndexCache.class);
+
+    private static final String DISABLE_PROPERTY = "com.palantir.baseline-exact-dependencies.disable-persistent-index";
+    private static final String CACHE_DIRECTORY = "caches/baseline/jar-classes-v1";
+    private static final String ENTRY_SUFFIX = ".classes";
+    private static final int MAGIC = 0x42434958;
+    private static final String HASHES_ENTRY_SUFFIX = ".hashes";
+    private static final int HASHES_MAGIC = 0x42434845;
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static final Duration ACCESS_TIME_GRANULARITY = Duration.ofHours(1);
+
+    private static final Map<Path, JarClassIndexCache> CACHES = new ConcurrentHashMap<>();
+    private static final JarClassIndexCache DISABLED = new JarClassIndexCache(null, 0);
+
+    private final Path directory;
+    private final long maxBytes;
+    private final AtomicLong bytesWrittenSinceEviction = new AtomicLong();
+
+    private JarClassIndexCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /** The cache shared by all projects using the same Gradle user home, unless disabled for this project. */
+    public static JarClassIndexCache forProject(Project project) {
+        if (isDisabled(project)) {
+            return DISABLED;
+        }
+        Path directory = project.getGradle()
+                .getGradleUserHomeDir()
+                .toPath()
+                .resolve(CACHE_DIRECTORY);
+        return CACHES.computeIfAbsent(directory, dir -> {
+            JarClassIndexCache cache = new JarClassIndexCache(dir, DEFAULT_MAX_BYTES);
+            // Other daemons may have grown the cache since this daemon last looked at it.
+            cache.evictIfNecessary();
+            return cache;
+        });
+    }
+
+    /** Set with {@code -P<property>} or {@code -P<property>=true}, but not {@code -P<property>=false}. */
+    private static boolean isDisabled(Project project) {
+        return Optional.ofNullable(project.findProperty(DISABLE_PROPERTY))
+                .map(Objects::toString)
+                .map(value -> value.isEmpty() || Boolean.parseBoolean(value))
+                .orElse(false);
+    }
+
+    /** A cache that never stores anything, for callers without a {@link Project}. */
+    public static JarClassIndexCache disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Returns the classes contained in {@code jar}, using {@code analyzer} and storing the result only if this jar
+     * has not been seen before. Directories (e.g. the output of other projects in this build) are mutable, so are
+     * always analyzed directly.
+     */
+    public Set<String> classesInJar(File jar, JarAnalyzer analyzer) throws IOException {
+        if (directory == null || !jar.isFile()) {
+            return analyzer.analyze(jar);
+        }
+
+        Path entry = entry(new JarKey(jar), ENTRY_SUFFIX);
+        Optional<Set<String>> cached = read(entry, JarClassIndexCache::decode);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
+        Set<String> classes = analyzer.analyze(jar);
+        write(entry, outputStream -> encode(classes, outputStream));
+        return classes;
+    }
+
+    /**
+     * Returns the content hash of each of the {@code entryNames} of {@code jar}, keyed by entry name. Only the entries
+     * that haven't been hashed before are hashed using {@code hasher}, and are then stored along with the others.
+     */
+    public Map<String, HashCode> entryHashesInJar(JarKey jar, Set<String> entryNames, JarHasher hasher)
+            throws IOException {
+        if (directory == null || !jar.file.isFile()) {
+            return hasher.hash(jar.file, entryNames);
+        }
+
+        Path entry = entry(jar, HASHES_ENTRY_SUFFIX);
+        Map<String, HashCode> stored = read(entry, JarClassIndexCache::decodeHashes).orElseGet(ImmutableMap::of);
+        Set<String> missing = Sets.difference(entryNames, stored.keySet());
+        if (missing.isEmpty()) {
+            return Maps.filterKeys(stored, entryNames::contains);
+        }
+
+        Map<String, HashCode> hashed = hasher.hash(jar.file, ImmutableSet.copyOf(missing));
+        Map<String, HashCode> hashes = new HashMap<>(stored);
+        hashes.putAll(hashed);
+        // Another daemon may have added different entries meanwhile, which are lost, but can always be hashed again
+        write(entry, outputStream -> encodeHashes(hashes, outputStream));
+        return Maps.filterKeys(hashes, entryNames::contains);
+    }
+
+    private Path entry(JarKey jar, String suffix) {
+        String key = Hashing.sha256()
+                .hashString(
+                        jar.file.getAbsolutePath() + '\n' + jar.length + '\n' + jar.lastModified,
+                        StandardCharsets.UTF_8)
+                .toString();
+        return directory.resolve(key + suffix);
+    }
+
+    private static <T> Optional<T> read(Path entry, Function<ByteBuffer, T> decoder) {
+        try {
+            // Not memory mapped, as a mapped file can't be deleted on Windows until the buffer is garbage collected
+            T contents = decoder.apply(ByteBuffer.wrap(Files.readAllBytes(entry)));
+            touch(entry);
+            return Optional.of(contents);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException | RuntimeException e) {
+            log.debug("Discarding unreadable class index entry {}", entry, e);
+            deleteQuietly(entry);
+            return Optional.empty();
+        }
+    }
+
+    private void write(Path entry, Encoder encoder) {
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, entry.getFileName().toString(), ".tmp");
+            try (OutputStream outputStream = Files.newOutputStream(temp)) {
+                encoder.encode(outputStream);
+            }
+            long size = Files.size(temp);
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (bytesWrittenSinceEviction.addAndGet(size) > maxBytes / 10) {
+                evictIfNecessary();
+            }
+        } catch (IOException e) {
+            // The cache is purely an optimization, we can always analyze the jar again next time.
+            log.debug("Unable to write class index entry {}", entry, e);
+            if (temp != null) {
+                deleteQuietly(temp);
+            }
+        }
+    }
+
+    /**
+     * Entries are sorted and each class name only stores the suffix that differs from the previous one, which is
+     * compact as classes in the same package share long prefixes. The layout is a magic number, the number of
+     * entries, then for each entry the length of the prefix shared with the previous name, the length of the
+     * remaining suffix, and the suffix bytes.
+     */
+    private static void encode(Set<String> classes, OutputStream outputStream) throws IOException {
+        List<byte[]> sorted = classes.stream()
+                .sorted()
+                .map(name -> name.getBytes(StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+        output.writeInt(MAGIC);
+        output.writeInt(sorted.size());
+        byte[] previous = new byte[0];
+        for (byte[] name : sorted) {
+            writeName(output, previous, name);
+            previous = name;
+        }
+        output.flush();
+    }
+
+    /** Uses the same layout as {@link #encode}, with each name followed by the length and bytes of its hash. */
+    private static void encodeHashes(Map<String, HashCode> hashes, OutputStream outputStream) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+        output.writeInt(HASHES_MAGIC);
+        output.writeInt(hashes.size());
+        byte[] previous = new byte[0];
+        for (Map.Entry<String, HashCode> entry : ImmutableSortedMap.copyOf(hashes).entrySet()) {
+            byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            writeName(output, previous, name);
+            byte[] hash = entry.getValue().asBytes();
+            output.writeByte(hash.length);
+            output.write(hash);
+            previous = name;
+        }
+        output.flush();
+    }
+
+    private static void writeName(DataOutputStream output, byte[] previous, byte[] name) throws IOException {
+        int shared = sharedPrefixLength(previous, name);
+        output.writeShort(shared);
+        output.writeShort(name.length - shared);
+        output.write(name, shared, name.length - shared);
+    }
+
+    private static Set<String> decode(ByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalStateException("Unrecognized class index entry");
+            }
+            int count = buffer.getInt();
+            ImmutableSet.Builder<String> classes = ImmutableSet.builderWithExpectedSize(count);
+            NameDecoder names = new NameDecoder();
+            for (int i = 0; i < count; i++) {
+                classes.add(names.next(buffer));
+            }
+            return classes.build();
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("Truncated class index entry", e);
+        }
+    }
+
+    private static Map<String, HashCode> decodeHashes(ByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != HASHES_MAGIC) {
+                throw new IllegalStateException("Unrecognized class hashes entry");
+            }
+            int count = buffer.getInt();
+            ImmutableMap.Builder<String, HashCode> hashes = ImmutableMap.builderWithExpectedSize(count);
+            NameDecoder names = new NameDecoder();
+            for (int i = 0; i < count; i++) {
+                String name = names.next(buffer);
+                byte[] hash = new byte[Byte.toUnsignedInt(buffer.get())];
+                buffer.get(hash);
+                hashes.put(name, HashCode.fromBytes(hash));
+            }
+            return hashes.build();
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("Truncated class hashes entry", e);
+        }
+    }
+
+    private static int sharedPrefixLength(byte[] previous, byte[] name) {
+        int max = Math.min(Math.min(previous.length, name.length), 0xFFFF);
+        int index = 0;
+        while (index < max && previous[index] == name[index]) {
+            index++;
+        }
+        return index;
+    }
+
+    /** Approximates LRU by bumping the modification time, which is cheap enough to do at a coarse granularity. */
+    private static void touch(Path entry) {
+        try {
+            Instant now = Instant.now();
+            if (Files.getLastModifiedTime(entry).toInstant().isBefore(now.minus(ACCESS_TIME_GRANULARITY))) {
+                Files.setLastModifiedTime(entry, FileTime.from(now));
+            }
+        } catch (IOException e) {
+            log.debug("Unable to update access time of {}", entry, e);
+        }
+    }
+
+    private synchronized void evictIfNecessary() {
+        bytesWrittenSinceEviction.set(0);
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> entries;
+        try (Stream<Path> files = Files.list(directory)) {
+            entries = files.filter(file -> file.getFileName().toString().endsWith(ENTRY_SUFFIX)
+                            || file.getFileName().toString().endsWith(HASHES_ENTRY_SUFFIX))
+                    .sorted(Comparator.comparing(JarClassIndexCache::lastModifiedMillis))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            log.debug("Unable to list class index cache {}", directory, e);
+            return;
+        }
+
+        long totalBytes = entries.stream().mapToLong(JarClassIndexCache::sizeOrZero).sum();
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+        // Evict down to 80% of the limit, so that we don't immediately have to evict again on the next write.
+        long targetBytes = maxBytes / 10 * 8;
+        int evicted = 0;
+        for (Path entry : entries) {
+            if (totalBytes <= targetBytes) {
+                break;
+            }
+            // Another daemon might concurrently be evicting the same entries, which is fine.
+            totalBytes -= sizeOrZero(entry);
+            deleteQuietly(entry);
+            evicted++;
+        }
+        log.info("Evicted {} entries from class index cache {}", evicted, directory);
+    }
+
+    private static long lastModifiedMillis(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long sizeOrZero(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.debug("Unable to delete {}", path, e);
+        }
+    }
+
+    /** Reassembles the prefix-compressed names written by {@link #writeName}. */
+    private static final class NameDecoder {
+        private byte[] name = new byte[256];
+
+        String next(ByteBuffer buffer) {
+            int shared = Short.toUnsignedInt(buffer.getShort());
+            int suffix = Short.toUnsignedInt(buffer.getShort());
+            if (shared + suffix > name.length) {
+                name = Arrays.copyOf(name, Math.max(name.length * 2, shared + suffix));
+            }
+            buffer.get(name, shared, suffix);
+            return new String(name, 0, shared + suffix, StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Identifies a jar by its path, size and modification time, which unlike its contents are cheap to look up. */
+    public static final class JarKey {
+        private final File file;
+        private final long length;
+        private final long lastModified;
+
+        public JarKey(File file) {
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        public File file() {
+            return file;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (other == null || getClass() != other.getClass()) {
+                return false;
+            }
+            JarKey jarKey = (JarKey) other;
+            return length == jarKey.length && lastModified == jarKey.lastModified && file.equals(jarKey.file);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(file, length, lastModified);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Encoder {
+        void encode(OutputStream outputStream) throws IOException;
+    }
+
+    /** Lists the classes in a jar or directory when no cached result is available. */
+    @FunctionalInterface
+    public interface JarAnalyzer {
+        Set<String> analyze(File jar) throws IOException;
+    }
+
+    /** Hashes the given entries of a jar, keyed by entry name, when no cached result is available. */
+    @FunctionalInterface
+    public interface JarHasher {
+        Map<String, HashCode> hash(File jar, Set<String> entryNames) throws IOException;
+    }
+}
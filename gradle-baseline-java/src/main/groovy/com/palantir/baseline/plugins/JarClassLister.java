@@ -0,0 +1,51 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.plugins;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Lists the classes in a jar using only its central directory. Unlike
+ * {@link org.apache.maven.shared.dependency.analyzer.DefaultClassAnalyzer}, which streams through (and so inflates)
+ * every entry of the jar, this only reads the entry names that {@link ZipFile} loads when the jar is opened.
+ */
+public final class JarClassLister {
+    private JarClassLister() {}
+
+    /**
+     * Returns the names of the classes in {@code jar}, named the same way as {@code DefaultClassAnalyzer} does,
+     * except that the versioned entries of multi-release jars are named after the class they replace.
+     */
+    public static ImmutableSet<String> classesInJar(File jar) throws IOException {
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            ImmutableSet.Builder<String> classes = ImmutableSet.builderWithExpectedSize(zipFile.size());
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                String className = ClassFileNames.toClassName(entries.nextElement().getName());
+                if (className != null) {
+                    classes.add(className);
+                }
+            }
+            return classes.build();
+        }
+    }
+}
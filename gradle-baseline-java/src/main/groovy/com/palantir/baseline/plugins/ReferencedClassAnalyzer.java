@@ -0,0 +1,100 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.maven.shared.dependency.analyzer.DependencyAnalyzer;
+import org.apache.maven.shared.dependency.analyzer.asm.ASMDependencyAnalyzer;
+import org.apache.maven.shared.dependency.analyzer.asm.DependencyClassFileVisitor;
+import org.gradle.api.Project;
+
+/** The ways in which {@link BaselineExactDependencies} can find the classes referenced by compiled classes. */
+public enum ReferencedClassAnalyzer {
+    /** Visits every class file using maven-dependency-analyzer's ASM visitors. */
+    ASM {
+        @Override
+        Stream<String> analyze(File classFile) throws IOException {
+            if (classFile.isFile()) {
+                // ASMDependencyAnalyzer only accepts jars and directories, so visit individual classes directly
+                DependencyClassFileVisitor visitor = new DependencyClassFileVisitor();
+                try (InputStream inputStream = new BufferedInputStream(new FileInputStream(classFile))) {
+                    visitor.visitClass(classFile.getName(), inputStream);
+                }
+                return visitor.getDependencies().stream();
+            }
+            return CLASS_FILE_ANALYZER.analyze(classFile.toURI().toURL()).stream();
+        }
+    },
+
+    /** Only reads the constant pool, descriptors and signatures of each class file, see {@link ConstantPoolScanner}. */
+    CONSTANT_POOL {
+        @Override
+        Stream<String> analyze(File classFile) throws IOException {
+            if (classFile.isFile()) {
+                return ConstantPoolScanner.referencedClasses(classFile).stream();
+            }
+            List<Path> classFiles;
+            try (Stream<Path> files = Files.walk(classFile.toPath())) {
+                classFiles = files.filter(file -> file.toString().endsWith(".class"))
+                        .collect(Collectors.toList());
+            }
+            Set<String> referencedClasses = new HashSet<>();
+            for (Path file : classFiles) {
+                referencedClasses.addAll(ConstantPoolScanner.referencedClasses(file.toFile()));
+            }
+            return referencedClasses.stream();
+        }
+    };
+
+    public static final String PROPERTY = "com.palantir.baseline-exact-dependencies.analyzer";
+
+    private static final DependencyAnalyzer CLASS_FILE_ANALYZER = new ASMDependencyAnalyzer();
+
+    /** The analyzer selected using the {@value #PROPERTY} property, e.g. {@code constant-pool}, or ASM by default. */
+    public static ReferencedClassAnalyzer forProject(Project project) {
+        return Optional.ofNullable(project.findProperty(PROPERTY))
+                .map(value -> valueOf(value.toString().trim().replace('-', '_').toUpperCase(Locale.ROOT)))
+                .orElse(ASM);
+    }
+
+    /**
+     * Given a {@code com/palantir/product/Foo.class} file (or a directory of them), what other classes does it
+     * import/reference.
+     */
+    public final Stream<String> referencedClasses(File classFile) {
+        try {
+            return analyze(classFile);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to analyze " + classFile, e);
+        }
+    }
+
+    abstract Stream<String> analyze(File classFile) throws IOException;
+}
@@ -0,0 +1,120 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.tasks;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import difflib.DiffUtils;
+import difflib.PatchFailedException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.Task;
+import org.gradle.api.execution.TaskExecutionGraph;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Applies the patches which error-prone wrote with {@code -XepPatchLocation:<directory>}, once every compile task that
+ * wrote one has finished. Patches are only applied for compile tasks which are part of this build, so that patches
+ * left behind by earlier builds are never applied to sources that have changed since.
+ */
+public class ApplyErrorPronePatchesTask extends DefaultTask {
+
+    private final Map<Task, File> patchFiles = new LinkedHashMap<>();
+
+    public ApplyErrorPronePatchesTask() {
+        setDescription("Applies the patches suggested by error-prone to the source files");
+    }
+
+    /** Applies {@code patchFile} once {@code task} has written it, if {@code task} is run. */
+    public final synchronized void patchFile(Task task, File patchFile) {
+        patchFiles.put(task, patchFile);
+        mustRunAfter(task);
+    }
+
+    @TaskAction
+    public final synchronized void applyPatches() {
+        TaskExecutionGraph taskGraph = getProject().getGradle().getTaskGraph();
+        int patchedFiles = 0;
+        for (Map.Entry<Task, File> entry : patchFiles.entrySet()) {
+            if (taskGraph.hasTask(entry.getKey()) && entry.getValue().exists()) {
+                patchedFiles += applyPatch(entry.getValue().toPath());
+            }
+        }
+        getLogger().lifecycle("Applied error-prone patches to {} files", patchedFiles);
+    }
+
+    /**
+     * Applies a patch written by error-prone, returning the number of files it changed. Error-prone writes a unified
+     * diff for each file it changes, whose paths are relative to the directory containing the patch.
+     */
+    public static int applyPatch(Path patchFile) {
+        List<List<String>> filePatches = splitByFile(readLines(patchFile));
+        for (List<String> filePatch : filePatches) {
+            Path sourceFile = patchFile.getParent()
+                    .resolve(filePatch.get(0).substring("--- ".length()))
+                    .normalize();
+            // Blank lines only separate the diffs, as unchanged blank lines still start with a space
+            List<String> diff = filePatch.stream().filter(line -> !line.isEmpty()).collect(Collectors.toList());
+            try {
+                List<String> patched = DiffUtils.patch(readLines(sourceFile), DiffUtils.parseUnifiedDiff(diff));
+                Files.write(sourceFile, Joiner.on('\n').join(patched).getBytes(StandardCharsets.UTF_8));
+            } catch (PatchFailedException e) {
+                throw new GradleException("Failed to apply error-prone patch " + patchFile + " to " + sourceFile, e);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write " + sourceFile, e);
+            }
+        }
+        return filePatches.size();
+    }
+
+    /** The diff of each file starts with a {@code ---} line directly followed by a {@code +++} line. */
+    private static List<List<String>> splitByFile(List<String> lines) {
+        List<List<String>> filePatches = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            boolean header = lines.get(i).startsWith("--- ")
+                    && i + 1 < lines.size()
+                    && lines.get(i + 1).startsWith("+++ ");
+            if (header) {
+                filePatches.add(new ArrayList<>());
+            }
+            if (!filePatches.isEmpty()) {
+                filePatches.get(filePatches.size() - 1).add(lines.get(i));
+            }
+        }
+        return filePatches;
+    }
+
+    /** Lines are split on {@code \n} alone, just as error-prone does, so that any {@code \r} are left alone. */
+    private static List<String> readLines(Path file) {
+        try {
+            return Splitter.on('\n').splitToList(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + file, e);
+        }
+    }
+}
@@ -16,19 +16,20 @@
 
 package com.palantir.baseline.tasks;
 
-import com.google.common.base.Splitter;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedMap;
-import difflib.DiffUtils;
-import difflib.Patch;
+import com.palantir.baseline.plugins.JarClassIndexCache;
+import groovy.json.JsonOutput;
 import java.io.File;
-import java.util.Collection;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.SortedSet;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.gradle.api.DefaultTask;
@@ -36,11 +37,20 @@ import org.gradle.api.GradleException;
 import org.gradle.api.Task;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.ModuleVersionIdentifier;
+import org.gradle.api.artifacts.ResolvedArtifact;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.provider.Property;
 import org.gradle.api.provider.SetProperty;
 import org.gradle.api.specs.Spec;
 import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Nested;
 import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.util.GFileUtils;
 
@@ -55,67 +65,117 @@ public class CheckClassUniquenessLockTask extends DefaultTask {
     @SuppressWarnings("VisibilityModifier")
     public final SetProperty<Configuration> configurations;
 
+    private final Supplier<List<ConfigurationClasspath>> classpaths;
     private final File lockFile;
+    private final File shadowingReport;
+    private final Property<ClassUniquenessScanner> scanner;
+    private final Property<Integer> targetRelease;
+    private final Property<Boolean> useZipChecksums;
 
     public CheckClassUniquenessLockTask() {
         this.configurations = getProject().getObjects().setProperty(Configuration.class);
+        this.classpaths = Suppliers.memoize(() -> configurations.get().stream()
+                .sorted(Comparator.comparing(Configuration::getName))
+                .map(ConfigurationClasspath::new)
+                .collect(ImmutableList.toImmutableList()));
+        this.scanner = getProject().getObjects().property(ClassUniquenessScanner.class);
+        this.targetRelease = getProject().getObjects().property(Integer.class);
+        this.targetRelease.set(ClassUniquenessScanner.BASE_RELEASE);
+        this.useZipChecksums = getProject().getObjects().property(Boolean.class);
+        this.useZipChecksums.set(false);
         this.lockFile = getProject().file("baseline-class-uniqueness.lock");
+        this.shadowingReport = new File(getProject().getBuildDir(), "reports/baseline-class-uniqueness/shadowing.json");
         onlyIf(new Spec<Task>() {
             @Override
             public boolean isSatisfiedBy(Task task) {
                 return !configurations.get().isEmpty();
             }
         });
+        // the lock file is rewritten in place, which restoring the outputs from the cache wouldn't do
+        getOutputs().upToDateWhen(new Spec<Task>() {
+            @Override
+            public boolean isSatisfiedBy(Task task) {
+                return !getWriteLocks();
+            }
+        });
+        getOutputs().doNotCacheIf("Locks are being written", new Spec<Task>() {
+            @Override
+            public boolean isSatisfiedBy(Task task) {
+                return getWriteLocks();
+            }
+        });
     }
 
     /**
      * This method exists purely for up-to-dateness purposes - we want to re-run if the contents of a configuration
-     * changes.
+     * changes. Gradle fingerprints the jars of each configuration itself, so this doesn't resolve anything that the
+     * check doesn't need anyway, and the result can be shared between machines. The check itself analyzes the same
+     * artifacts.
      */
+    @Nested
+    public final List<ConfigurationClasspath> getClasspaths() {
+        return classpaths.get();
+    }
+
+    /**
+     * The checked-in lock file is compared against rather than produced, unless locks are being written. It only
+     * exists if problems were found.
+     */
+    @org.gradle.api.tasks.Optional
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public final File getLockFile() {
+        return lockFile.exists() ? lockFile : null;
+    }
+
     @Input
-    public final Map<String, ImmutableList<String>> getContentsOfAllConfigurations() {
-        return configurations.get().stream().collect(Collectors.toMap(Configuration::getName, configuration -> {
-            return configuration.getIncoming().getResolutionResult().getAllComponents().stream()
-                    .map(resolvedComponentResult -> Objects.toString(resolvedComponentResult.getModuleVersion()))
-                    .collect(ImmutableList.toImmutableList()); // Gradle requires this to be Serializable
-        }));
+    public final boolean getWriteLocks() {
+        return getProject().getGradle().getStartParameter().isWriteDependencyLocks();
     }
 
+    /**
+     * For each configuration, which variant of each differing class is loaded given the classpath order, and how much
+     * the variants differ in size and number of methods. This is the output that is restored from the build cache.
+     */
     @OutputFile
-    public final File getLockFile() {
-        return lockFile;
+    public final File getShadowingReport() {
+        return shadowingReport;
+    }
+
+    /** Shared between all configurations and projects, so jars on many classpaths are only read once. */
+    @Internal
+    public final Property<ClassUniquenessScanner> getScanner() {
+        return scanner;
+    }
+
+    /** The Java release whose classes are checked, which matters for multi-release jars. */
+    @Input
+    public final Property<Integer> getTargetRelease() {
+        return targetRelease;
+    }
+
+    /**
+     * Whether identically named classes with the same CRC-32 and size in the jars' central directories are assumed to
+     * be identical without hashing their contents.
+     */
+    @Input
+    public final Property<Boolean> getUseZipChecksums() {
+        return useZipChecksums;
     }
 
     @TaskAction
     public final void doIt() {
-        ImmutableSortedMap<String, Optional<String>> resultsByConfiguration = configurations.get().stream()
+        ClassUniquenessScanner sharedScanner = scanner.isPresent() ? scanner.get() : new ClassUniquenessScanner();
+        JarClassIndexCache jarCache = JarClassIndexCache.forProject(getProject());
+        ImmutableSortedMap<String, ClassUniquenessResult> resultsByConfiguration = getClasspaths().stream()
                 .collect(ImmutableSortedMap.toImmutableSortedMap(
-                        Comparator.naturalOrder(), Configuration::getName, configuration -> {
-                            ClassUniquenessAnalyzer analyzer =
-                                    new ClassUniquenessAnalyzer(getProject().getLogger());
-                            analyzer.analyzeConfiguration(configuration);
-                            Collection<Set<ModuleVersionIdentifier>> problemJars = analyzer.getDifferingProblemJars();
-
-                            if (problemJars.isEmpty()) {
-                                return Optional.empty();
-                            }
-
-                            ImmutableSortedMap<String, String> clashingHeadersToClasses = problemJars.stream()
-                                    .collect(ImmutableSortedMap.toImmutableSortedMap(
-                                            Comparator.naturalOrder(),
-                                            this::clashingJarHeader,
-                                            clashingJars -> clashingClasses(analyzer, clashingJars)));
-
-                            return Optional.of(clashingHeadersToClasses.entrySet().stream()
-                                    .flatMap(entry -> {
-                                        String clashingJarHeader = entry.getKey();
-                                        String clashingClasses = entry.getValue();
-                                        return Stream.of(clashingJarHeader, clashingClasses);
-                                    })
-                                    .collect(Collectors.joining("\n")));
-                        }));
-
-        boolean conflictsFound = resultsByConfiguration.values().stream().anyMatch(Optional::isPresent);
+                        Comparator.naturalOrder(),
+                        ConfigurationClasspath::getName,
+                        classpath -> analyze(classpath, sharedScanner, jarCache)));
+
+        writeShadowingReport(resultsByConfiguration);
+
+        boolean conflictsFound = resultsByConfiguration.values().stream().anyMatch(result -> !result.isEmpty());
         if (!conflictsFound) {
             // this is desirable because if means if people apply the plugin to lots of projects which are already
             // compliant, they don't get loads of noisy lockfiles created.
@@ -123,18 +183,86 @@ public class CheckClassUniquenessLockTask extends DefaultTask {
         } else {
             StringBuilder stringBuilder = new StringBuilder();
             stringBuilder.append(HEADER);
-            resultsByConfiguration.forEach((configuration, maybeContents) -> maybeContents.ifPresent(contents -> {
-                stringBuilder.append("## ").append(configuration).append("\n");
-                stringBuilder.append(contents);
-            }));
+            resultsByConfiguration.forEach((configuration, result) -> {
+                if (!result.isEmpty()) {
+                    stringBuilder.append("## ").append(configuration).append("\n");
+                    stringBuilder.append(lockFileContents(result));
+                }
+            });
             stringBuilder.append('\n');
             ensureLockfileContains(stringBuilder.toString());
         }
     }
 
-    private String clashingClasses(ClassUniquenessAnalyzer analyzer, Set<ModuleVersionIdentifier> clashingJars) {
-        return analyzer.getDifferingSharedClassesInProblemJars(clashingJars).stream()
-                .sorted()
+    /** Other projects with the same classpath share the result, so it's only analyzed once per build. */
+    private ClassUniquenessResult analyze(
+            ConfigurationClasspath classpath, ClassUniquenessScanner sharedScanner, JarClassIndexCache jarCache) {
+        List<ResolvedArtifact> artifacts = classpath.getArtifacts();
+        return sharedScanner.analysis(artifacts, targetRelease.get(), useZipChecksums.get(), () -> {
+            ClassUniquenessAnalyzer analyzer = new ClassUniquenessAnalyzer(
+                    getProject().getLogger(), sharedScanner, jarCache, targetRelease.get(), useZipChecksums.get());
+            analyzer.analyzeArtifacts(artifacts);
+            return analyzer.getResult();
+        });
+    }
+
+    private String lockFileContents(ClassUniquenessResult result) {
+        ImmutableSortedMap<String, String> clashingHeadersToClasses =
+                result.differingClassesByJars().entrySet().stream().collect(ImmutableSortedMap.toImmutableSortedMap(
+                        Comparator.naturalOrder(),
+                        entry -> clashingJarHeader(entry.getKey()),
+                        entry -> clashingClasses(entry.getValue())));
+
+        return clashingHeadersToClasses.entrySet().stream()
+                .flatMap(entry -> {
+                    String clashingJarHeader = entry.getKey();
+                    String clashingClasses = entry.getValue();
+                    return Stream.of(clashingJarHeader, clashingClasses);
+                })
+                .collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * Unlike the lock file, the report is written even if there are no problems, so that tools consuming it can rely
+     * on it existing.
+     */
+    private void writeShadowingReport(Map<String, ClassUniquenessResult> resultsByConfiguration) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        resultsByConfiguration.forEach((configuration, result) -> report.put(
+                configuration,
+                result.shadowedClasses().stream()
+                        .map(CheckClassUniquenessLockTask::shadowedClassJson)
+                        .collect(Collectors.toList())));
+        GFileUtils.writeFile(JsonOutput.prettyPrint(JsonOutput.toJson(report)) + "\n", shadowingReport);
+    }
+
+    private static Map<String, Object> shadowedClassJson(ShadowedClass shadowedClass) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("className", shadowedClass.getClassName());
+        json.put("winner", coordinates(shadowedClass.getWinner().getJar()));
+        json.put("sizeDelta", shadowedClass.getSizeDelta());
+        json.put("methodCountDelta", shadowedClass.getMethodCountDelta());
+        json.put(
+                "variants",
+                shadowedClass.getVariants().stream()
+                        .map(variant -> {
+                            Map<String, Object> variantJson = new LinkedHashMap<>();
+                            variantJson.put("jar", coordinates(variant.getJar()));
+                            variantJson.put("sha256", variant.getHash().toString());
+                            variantJson.put("size", variant.getSize());
+                            variantJson.put("methodCount", variant.getMethodCount());
+                            return variantJson;
+                        })
+                        .collect(Collectors.toList()));
+        return json;
+    }
+
+    private static String coordinates(ModuleVersionIdentifier mvi) {
+        return mvi.getGroup() + ":" + mvi.getName() + ":" + mvi.getVersion();
+    }
+
+    private String clashingClasses(SortedSet<String> clashingClasses) {
+        return clashingClasses.stream()
                 .map(className -> String.format("  - %s", className))
                 .collect(Collectors.joining("\n"));
     }
@@ -147,7 +275,7 @@ public class CheckClassUniquenessLockTask extends DefaultTask {
     }
 
     private void ensureLockfileContains(String expected) {
-        if (getProject().getGradle().getStartParameter().isWriteDependencyLocks()) {
+        if (getWriteLocks()) {
             GFileUtils.writeFile(expected, lockFile);
             getLogger()
                     .lifecycle("Updated {}", getProject().getRootDir().toPath().relativize(lockFile.toPath()));
@@ -161,11 +289,8 @@ public class CheckClassUniquenessLockTask extends DefaultTask {
                     + expected);
         }
 
-        String onDisk = GFileUtils.readFile(lockFile);
-        if (!onDisk.equals(expected)) {
-            List<String> onDiskLines = Splitter.on('\n').splitToList(onDisk);
-            Patch<String> diff = DiffUtils.diff(onDiskLines, Splitter.on('\n').splitToList(expected));
-
+        Optional<String> diff = LockFileDiff.diff(lockFile, expected);
+        if (diff.isPresent()) {
             throw new GradleException(String.join(
                     "\n",
                     String.format(
@@ -173,22 +298,13 @@ public class CheckClassUniquenessLockTask extends DefaultTask {
                                     + "to update this file. The diff is:",
                             lockFile),
                     "",
-                    String.join(
-                            "\n",
-                            DiffUtils.generateUnifiedDiff("on disk", "expected", onDiskLines, diff, Integer.MAX_VALUE)),
-                    "",
-                    "On disk was:",
-                    "",
-                    onDisk,
-                    "",
-                    "Expected was:",
-                    expected));
+                    diff.get()));
         }
     }
 
     private void ensureLockfileDoesNotExist() {
         if (lockFile.exists()) {
-            if (getProject().getGradle().getStartParameter().isWriteDependencyLocks()) {
+            if (getWriteLocks()) {
                 GFileUtils.deleteQuietly(lockFile);
                 getLogger()
                         .lifecycle(
@@ -198,4 +314,40 @@ public class CheckClassUniquenessLockTask extends DefaultTask {
             }
         }
     }
+
+    /** The jars of a single configuration, which are checked (and reported) separately from other configurations. */
+    public static final class ConfigurationClasspath {
+        private final Configuration configuration;
+        private final Supplier<List<ResolvedArtifact>> artifacts;
+
+        private ConfigurationClasspath(Configuration configuration) {
+            this.configuration = configuration;
+            this.artifacts = Suppliers.memoize(() ->
+                    ImmutableList.copyOf(configuration.getResolvedConfiguration().getResolvedArtifacts()));
+        }
+
+        @Input
+        public String getName() {
+            return configuration.getName();
+        }
+
+        @Classpath
+        public FileCollection getClasspath() {
+            return configuration;
+        }
+
+        /** Reported in the lock file, and not captured by the contents of the jars. */
+        @Input
+        public List<String> getComponents() {
+            return getArtifacts().stream()
+                    .map(artifact -> artifact.getId().getComponentIdentifier().getDisplayName())
+                    .collect(ImmutableList.toImmutableList());
+        }
+
+        /** Resolved once, both to fingerprint the configuration and to check it. */
+        @Internal
+        public List<ResolvedArtifact> getArtifacts() {
+            return artifacts.get();
+        }
+    }
 }
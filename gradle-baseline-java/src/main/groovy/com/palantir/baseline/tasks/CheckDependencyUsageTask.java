@@ -0,0 +1,212 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.tasks;
+
+import com.palantir.baseline.plugins.BaselineExactDependencies;
+import com.palantir.baseline.plugins.DependencyUsageMatrix;
+import com.palantir.baseline.plugins.JarClassIndexCache;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.ResolvedArtifact;
+import org.gradle.api.artifacts.ResolvedDependency;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Checks every source set of a project for both unused and implicit dependencies. The jars of all source sets are
+ * indexed together and each class referenced by any of them is only mapped to its artifact once, see
+ * {@link DependencyUsageMatrix}, whereas each {@link CheckUnusedDependenciesTask} and
+ * {@link CheckImplicitDependenciesTask} resolves and looks up the same dependencies for its own source set.
+ */
+public class CheckDependencyUsageTask extends DefaultTask {
+
+    private final List<SourceSetDependencies> sourceSets = new ArrayList<>();
+    private final Property<BaselineExactDependencies.Indexes> indexes;
+
+    public CheckDependencyUsageTask() {
+        setGroup("Verification");
+        setDescription("Ensures all source sets declare exactly the dependencies they use");
+        indexes = getProject().getObjects().property(BaselineExactDependencies.Indexes.class);
+        getOutputs().upToDateWhen(_task -> true);
+    }
+
+    @TaskAction
+    public final void checkDependencyUsage() {
+        Instant before = Instant.now();
+        Map<String, Set<String>> referencedClasses = new LinkedHashMap<>();
+        Set<ResolvedDependency> allDependencies = new HashSet<>();
+        for (SourceSetDependencies sourceSet : sourceSets) {
+            referencedClasses.put(
+                    sourceSet.getName(),
+                    ReferencedClassesTask.readReferencedClasses(
+                            sourceSet.getReferencedClasses().get().getAsFile()));
+            allDependencies.addAll(firstLevelDependencies(sourceSet.getDeclaredDependencies()));
+            allDependencies.addAll(firstLevelDependencies(sourceSet.getCompileClasspath()));
+        }
+
+        BaselineExactDependencies.Indexes index = indexes.get();
+        List<String> failures = new ArrayList<>();
+        try (BaselineExactDependencies.Indexes.Lease ignored =
+                index.populateIndexes(allDependencies, JarClassIndexCache.forProject(getProject()))) {
+            DependencyUsageMatrix matrix = DependencyUsageMatrix.compute(index, referencedClasses);
+            getLogger()
+                    .info(
+                            "Computed dependency usage of {} source sets in {}ms",
+                            sourceSets.size(),
+                            Duration.between(before, Instant.now()).toMillis());
+
+            for (SourceSetDependencies sourceSet : sourceSets) {
+                Set<ResolvedArtifact> usedArtifacts = matrix.usedArtifacts(sourceSet.getName());
+                try {
+                    CheckUnusedDependenciesTask.checkUnusedDependencies(
+                            index,
+                            firstLevelDependencies(sourceSet.getDeclaredDependencies()),
+                            referencedClasses.get(sourceSet.getName()),
+                            usedArtifacts,
+                            sourceSet.getIgnoreUnused().get(),
+                            buildFile());
+                } catch (GradleException e) {
+                    failures.add(sourceSet.getName() + ": " + e.getMessage());
+                }
+                try {
+                    CheckImplicitDependenciesTask.checkImplicitDependencies(
+                            firstLevelDependencies(sourceSet.getCompileClasspath()),
+                            usedArtifacts,
+                            sourceSet.getIgnoreImplicit().get(),
+                            getProject().getPath(),
+                            buildFile());
+                } catch (GradleException e) {
+                    failures.add(sourceSet.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new GradleException(String.join("\n", failures));
+        }
+    }
+
+    private static Set<ResolvedDependency> firstLevelDependencies(Configuration configuration) {
+        return configuration.getResolvedConfiguration().getFirstLevelModuleDependencies().stream()
+                .collect(Collectors.toSet());
+    }
+
+    private Path buildFile() {
+        return getProject()
+                .getRootDir()
+                .toPath()
+                .relativize(getProject().getBuildFile().toPath());
+    }
+
+    /** Artifacts produced by this project are never reported as implicit dependencies. */
+    @Input
+    public final String getProjectPath() {
+        return getProject().getPath();
+    }
+
+    @Nested
+    public final List<SourceSetDependencies> getSourceSets() {
+        return sourceSets;
+    }
+
+    public final void sourceSet(SourceSetDependencies sourceSet) {
+        sourceSets.add(sourceSet);
+    }
+
+    @Internal
+    public final Property<BaselineExactDependencies.Indexes> getIndexes() {
+        return indexes;
+    }
+
+    /** What the checks of a single source set need, equivalent to its two per-source-set check tasks. */
+    public static final class SourceSetDependencies {
+        private final String name;
+        private final Provider<RegularFile> referencedClasses;
+        private final Configuration declaredDependencies;
+        private final Configuration compileClasspath;
+        private final Provider<Set<String>> ignoreUnused;
+        private final Provider<Set<String>> ignoreImplicit;
+
+        public SourceSetDependencies(
+                String name,
+                Provider<RegularFile> referencedClasses,
+                Configuration declaredDependencies,
+                Configuration compileClasspath,
+                Provider<Set<String>> ignoreUnused,
+                Provider<Set<String>> ignoreImplicit) {
+            this.name = name;
+            this.referencedClasses = referencedClasses;
+            this.declaredDependencies = declaredDependencies;
+            this.compileClasspath = compileClasspath;
+            this.ignoreUnused = ignoreUnused;
+            this.ignoreImplicit = ignoreImplicit;
+        }
+
+        @Input
+        public String getName() {
+            return name;
+        }
+
+        /** The classes referenced by this source set, as recorded by {@link ReferencedClassesTask}. */
+        @InputFile
+        @PathSensitive(PathSensitivity.NONE)
+        public Provider<RegularFile> getReferencedClasses() {
+            return referencedClasses;
+        }
+
+        /** The dependencies declared directly by this source set, which are checked for unused dependencies. */
+        @Classpath
+        public Configuration getDeclaredDependencies() {
+            return declaredDependencies;
+        }
+
+        /** The compile classpath of this source set, which is checked for implicit dependencies. */
+        @Classpath
+        public Configuration getCompileClasspath() {
+            return compileClasspath;
+        }
+
+        @Input
+        public Provider<Set<String>> getIgnoreUnused() {
+            return ignoreUnused;
+        }
+
+        @Input
+        public Provider<Set<String>> getIgnoreImplicit() {
+            return ignoreImplicit;
+        }
+    }
+}
@@ -17,8 +17,11 @@
 package com.palantir.baseline.tasks;
 
 import com.google.common.collect.Sets;
-import com.google.common.collect.Streams;
 import com.palantir.baseline.plugins.BaselineExactDependencies;
+import com.palantir.baseline.plugins.JarClassIndexCache;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.Comparator;
@@ -34,18 +37,35 @@ import org.gradle.api.artifacts.ResolvedArtifact;
 import org.gradle.api.artifacts.ResolvedDependency;
 import org.gradle.api.artifacts.component.ProjectComponentIdentifier;
 import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.provider.SetProperty;
+import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Classpath;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.TaskProvider;
 
+/**
+ * Fails if the source set uses classes from dependencies it doesn't declare. The result only depends on the contents
+ * and coordinates of the resolved dependencies and on the referenced classes, so it can be re-used from the build
+ * cache; on success the artifacts that are actually used are written to {@link #getReport()}.
+ */
+@CacheableTask
 public class CheckImplicitDependenciesTask extends DefaultTask {
 
     private final ListProperty<Configuration> dependenciesConfigurations;
+    private final RegularFileProperty referencedClassesFile;
     private final Property<FileCollection> sourceClasses;
+    private final RegularFileProperty report;
+    private final Property<BaselineExactDependencies.Indexes> indexes;
     private final SetProperty<String> ignore;
 
     public CheckImplicitDependenciesTask() {
@@ -53,7 +73,11 @@ public class CheckImplicitDependenciesTask extends DefaultTask {
         setDescription("Ensures all dependencies are explicitly declared, not just transitively provided");
         dependenciesConfigurations = getProject().getObjects().listProperty(Configuration.class);
         dependenciesConfigurations.set(Collections.emptyList());
+        referencedClassesFile = getProject().getObjects().fileProperty();
         sourceClasses = getProject().getObjects().property(FileCollection.class);
+        report = getProject().getObjects().fileProperty();
+        report.set(getProject().getLayout().getBuildDirectory().file("baseline-exact-dependencies/" + getName()));
+        indexes = getProject().getObjects().property(BaselineExactDependencies.Indexes.class);
         ignore = getProject().getObjects().setProperty(String.class);
         ignore.set(Collections.emptySet());
     }
@@ -64,13 +88,49 @@ public class CheckImplicitDependenciesTask extends DefaultTask {
                 .map(Configuration::getResolvedConfiguration)
                 .flatMap(resolved -> resolved.getFirstLevelModuleDependencies().stream())
                 .collect(Collectors.toSet());
-        BaselineExactDependencies.INDEXES.populateIndexes(declaredDependencies);
+        BaselineExactDependencies.Indexes index = indexes.get();
+        try (BaselineExactDependencies.Indexes.Lease ignored =
+                index.populateIndexes(declaredDependencies, JarClassIndexCache.forProject(getProject()))) {
+            checkImplicitDependencies(index, declaredDependencies);
+        }
+    }
 
-        Set<ResolvedArtifact> necessaryArtifacts = referencedClasses().stream()
-                .map(BaselineExactDependencies.INDEXES::classToDependency)
+    private void checkImplicitDependencies(
+            BaselineExactDependencies.Indexes index, Set<ResolvedDependency> declaredDependencies) {
+        Set<ResolvedArtifact> referencedArtifacts = referencedClasses().stream()
+                .map(index::classToDependency)
                 .filter(Optional::isPresent)
                 .map(Optional::get)
-                .filter(x -> !isArtifactFromCurrentProject(x))
+                .collect(Collectors.toSet());
+        Set<ResolvedArtifact> necessaryArtifacts = checkImplicitDependencies(
+                declaredDependencies, referencedArtifacts, ignore.get(), getProject().getPath(), buildFile());
+
+        try {
+            Files.write(
+                    report.get().getAsFile().toPath(),
+                    necessaryArtifacts.stream()
+                            .map(BaselineExactDependencies::asDependencyStringWithoutName)
+                            .sorted()
+                            .collect(Collectors.toList()),
+                    StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write " + report.get(), e);
+        }
+    }
+
+    /**
+     * Fails if any of the referenced artifacts, other than those of the project at {@code projectPath}, is neither
+     * declared nor ignored. Returns the referenced artifacts that aren't from that project. Also used by
+     * {@link CheckDependencyUsageTask}, which finds the referenced artifacts of all source sets at once.
+     */
+    static Set<ResolvedArtifact> checkImplicitDependencies(
+            Set<ResolvedDependency> declaredDependencies,
+            Set<ResolvedArtifact> referencedArtifacts,
+            Set<String> ignore,
+            String projectPath,
+            Path buildFile) {
+        Set<ResolvedArtifact> necessaryArtifacts = referencedArtifacts.stream()
+                .filter(x -> !isArtifactFromProject(x, projectPath))
                 .collect(Collectors.toSet());
         Set<ResolvedArtifact> declaredArtifacts = declaredDependencies.stream()
                 .flatMap(dependency -> dependency.getModuleArtifacts().stream())
@@ -78,7 +138,7 @@ public class CheckImplicitDependenciesTask extends DefaultTask {
 
         List<ResolvedArtifact> usedButUndeclared = Sets.difference(necessaryArtifacts, declaredArtifacts).stream()
                 .sorted(Comparator.comparing(artifact -> artifact.getId().getDisplayName()))
-                .filter(artifact -> !shouldIgnore(artifact))
+                .filter(artifact -> !ignore.contains(BaselineExactDependencies.asString(artifact)))
                 .collect(Collectors.toList());
         if (!usedButUndeclared.isEmpty()) {
             String suggestion = usedButUndeclared.stream()
@@ -89,11 +149,12 @@ public class CheckImplicitDependenciesTask extends DefaultTask {
             throw new GradleException(String.format(
                     "Found %d implicit dependencies - consider adding the following explicit "
                             + "dependencies to '%s', or avoid using classes from these jars:\n%s",
-                    usedButUndeclared.size(), buildFile(), suggestion));
+                    usedButUndeclared.size(), buildFile, suggestion));
         }
+        return necessaryArtifacts;
     }
 
-    private String getSuggestionString(ResolvedArtifact artifact) {
+    private static String getSuggestionString(ResolvedArtifact artifact) {
         String artifactNameString = isProjectArtifact(artifact)
                 ? String.format(
                         "project('%s')",
@@ -108,27 +169,23 @@ public class CheckImplicitDependenciesTask extends DefaultTask {
     /**
      * Return true if the resolved artifact is derived from a project in the current build rather than an external jar.
      */
-    private boolean isProjectArtifact(ResolvedArtifact artifact) {
+    private static boolean isProjectArtifact(ResolvedArtifact artifact) {
         return artifact.getId().getComponentIdentifier() instanceof ProjectComponentIdentifier;
     }
 
-    /**
-     * Return true if the resolved artifact is derived from a project in the current build rather than an external jar.
-     */
-    private boolean isArtifactFromCurrentProject(ResolvedArtifact artifact) {
+    /** Return true if the resolved artifact is derived from the project at {@code projectPath}. */
+    private static boolean isArtifactFromProject(ResolvedArtifact artifact, String projectPath) {
         if (!isProjectArtifact(artifact)) {
             return false;
         }
         return ((ProjectComponentIdentifier) artifact.getId().getComponentIdentifier())
                 .getProjectPath()
-                .equals(getProject().getPath());
+                .equals(projectPath);
     }
 
     /** All classes which are mentioned in this project's source code. */
     private Set<String> referencedClasses() {
-        return Streams.stream(sourceClasses.get().iterator())
-                .flatMap(BaselineExactDependencies::referencedClasses)
-                .collect(Collectors.toSet());
+        return ReferencedClassesTask.readReferencedClasses(referencedClassesFile.get().getAsFile());
     }
 
     private Path buildFile() {
@@ -138,10 +195,6 @@ public class CheckImplicitDependenciesTask extends DefaultTask {
                 .relativize(getProject().getBuildFile().toPath());
     }
 
-    private boolean shouldIgnore(ResolvedArtifact artifact) {
-        return ignore.get().contains(BaselineExactDependencies.asString(artifact));
-    }
-
     @Classpath
     public final Provider<List<Configuration>> getDependenciesConfigurations() {
         return dependenciesConfigurations;
@@ -151,13 +204,68 @@ public class CheckImplicitDependenciesTask extends DefaultTask {
         this.dependenciesConfigurations.add(Objects.requireNonNull(dependenciesConfiguration));
     }
 
-    @Classpath
+    /**
+     * The coordinates of the components whose artifacts were resolved, as {@link #getDependenciesConfigurations()}
+     * only tracks their contents, but we report and ignore artifacts by coordinate.
+     */
+    @Input
+    public final Provider<List<String>> getResolvedArtifacts() {
+        return dependenciesConfigurations.map(configurations -> configurations.stream()
+                .flatMap(configuration ->
+                        configuration.getIncoming().getArtifacts().getArtifacts().stream())
+                .map(artifact -> artifact.getId().getComponentIdentifier().getDisplayName())
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList()));
+    }
+
+    /** Artifacts produced by this project are never reported. */
+    @Input
+    public final String getProjectPath() {
+        return getProject().getPath();
+    }
+
+    @OutputFile
+    public final RegularFileProperty getReport() {
+        return report;
+    }
+
+    @Internal
+    public final Property<BaselineExactDependencies.Indexes> getIndexes() {
+        return indexes;
+    }
+
+    /** The classes referenced by this source set, as recorded by {@link ReferencedClassesTask}. */
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public final RegularFileProperty getReferencedClasses() {
+        return referencedClassesFile;
+    }
+
+    /**
+     * The classes set by {@link #setSourceClasses}, if any.
+     *
+     * @deprecated The referenced classes are read from {@link #getReferencedClasses()}.
+     */
+    @Deprecated
+    @Internal
     public final Provider<FileCollection> getSourceClasses() {
         return sourceClasses;
     }
 
+    /**
+     * Analyzes {@code newClasses} in a {@link ReferencedClassesTask} of this task's own, and reads the referenced
+     * classes from its output.
+     *
+     * @deprecated Set {@link #getReferencedClasses()} to the output of a {@link ReferencedClassesTask} instead.
+     */
+    @Deprecated
     public final void setSourceClasses(FileCollection newClasses) {
-        this.sourceClasses.set(getProject().files(newClasses));
+        TaskProvider<ReferencedClassesTask> referencedClasses =
+                ReferencedClassesTask.forDeprecatedSourceClasses(this, newClasses);
+        this.sourceClasses.set(newClasses);
+        this.referencedClassesFile.set(referencedClasses.flatMap(ReferencedClassesTask::getReferencedClassesFile));
+        dependsOn(referencedClasses);
     }
 
     public final void ignore(Provider<Set<String>> value) {
@@ -18,8 +18,8 @@ package com.palantir.baseline.tasks;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
-import com.google.common.collect.Streams;
 import com.palantir.baseline.plugins.BaselineExactDependencies;
+import com.palantir.baseline.plugins.JarClassIndexCache;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.Comparator;
@@ -34,19 +34,30 @@ import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.ResolvedArtifact;
 import org.gradle.api.artifacts.ResolvedDependency;
 import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.provider.SetProperty;
 import org.gradle.api.tasks.Classpath;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.TaskProvider;
 
 public class CheckUnusedDependenciesTask extends DefaultTask {
+    private static final Logger log = Logging.getLogger(CheckUnusedDependenciesTask.class);
 
     private final ListProperty<Configuration> dependenciesConfigurations;
     private final ListProperty<Configuration> sourceOnlyConfigurations;
+    private final RegularFileProperty referencedClassesFile;
     private final Property<FileCollection> sourceClasses;
+    private final Property<BaselineExactDependencies.Indexes> indexes;
     private final SetProperty<String> ignore;
 
     public CheckUnusedDependenciesTask() {
@@ -56,7 +67,9 @@ public class CheckUnusedDependenciesTask extends DefaultTask {
         dependenciesConfigurations.set(Collections.emptyList());
         sourceOnlyConfigurations = getProject().getObjects().listProperty(Configuration.class);
         sourceOnlyConfigurations.set(Collections.emptyList());
+        referencedClassesFile = getProject().getObjects().fileProperty();
         sourceClasses = getProject().getObjects().property(FileCollection.class);
+        indexes = getProject().getObjects().property(BaselineExactDependencies.Indexes.class);
         ignore = getProject().getObjects().setProperty(String.class);
         ignore.set(Collections.emptySet());
         getOutputs().upToDateWhen(_task -> true);
@@ -68,34 +81,54 @@ public class CheckUnusedDependenciesTask extends DefaultTask {
                 .map(Configuration::getResolvedConfiguration)
                 .flatMap(resolved -> resolved.getFirstLevelModuleDependencies().stream())
                 .collect(Collectors.toSet());
-        BaselineExactDependencies.INDEXES.populateIndexes(declaredDependencies);
-
-        Set<ResolvedArtifact> declaredArtifacts = declaredDependencies.stream()
-                .flatMap(dependency -> dependency.getModuleArtifacts().stream())
-                .filter(dependency ->
-                        BaselineExactDependencies.VALID_ARTIFACT_EXTENSIONS.contains(dependency.getExtension()))
-                .collect(Collectors.toSet());
+        BaselineExactDependencies.Indexes index = indexes.get();
+        try (BaselineExactDependencies.Indexes.Lease ignored =
+                index.populateIndexes(declaredDependencies, JarClassIndexCache.forProject(getProject()))) {
+            checkUnusedDependencies(index, declaredDependencies);
+        }
+    }
 
+    private void checkUnusedDependencies(
+            BaselineExactDependencies.Indexes index, Set<ResolvedDependency> declaredDependencies) {
         excludeSourceOnlyDependencies();
 
-        Set<ResolvedArtifact> necessaryArtifacts = Streams.stream(
-                        sourceClasses.get().iterator())
-                .flatMap(BaselineExactDependencies::referencedClasses)
-                .map(BaselineExactDependencies.INDEXES::classToDependency)
+        Set<String> referencedClasses = referencedClasses();
+        Set<ResolvedArtifact> necessaryArtifacts = referencedClasses.stream()
+                .map(index::classToDependency)
                 .filter(Optional::isPresent)
                 .map(Optional::get)
                 .collect(Collectors.toSet());
+        checkUnusedDependencies(
+                index, declaredDependencies, referencedClasses, necessaryArtifacts, ignore.get(), buildFile());
+    }
+
+    /**
+     * Fails if any of the declared dependencies which aren't ignored provide none of the necessary artifacts, and
+     * suggests which of their transitive dependencies to declare instead. Also used by
+     * {@link CheckDependencyUsageTask}, which finds the necessary artifacts of all source sets at once.
+     */
+    static void checkUnusedDependencies(
+            BaselineExactDependencies.Indexes index,
+            Set<ResolvedDependency> declaredDependencies,
+            Set<String> referencedClasses,
+            Set<ResolvedArtifact> necessaryArtifacts,
+            Set<String> ignore,
+            Path buildFile) {
+        Set<ResolvedArtifact> declaredArtifacts = declaredDependencies.stream()
+                .flatMap(dependency -> dependency.getModuleArtifacts().stream())
+                .filter(dependency ->
+                        BaselineExactDependencies.VALID_ARTIFACT_EXTENSIONS.contains(dependency.getExtension()))
+                .collect(Collectors.toSet());
 
         Set<ResolvedArtifact> possiblyUnused = Sets.difference(declaredArtifacts, necessaryArtifacts);
-        getLogger()
-                .debug(
-                        "Possibly unused dependencies: {}",
-                        possiblyUnused.stream()
-                                .map(BaselineExactDependencies::asString)
-                                .sorted()
-                                .collect(Collectors.toList()));
+        log.debug(
+                "Possibly unused dependencies: {}",
+                possiblyUnused.stream()
+                        .map(BaselineExactDependencies::asString)
+                        .sorted()
+                        .collect(Collectors.toList()));
         List<ResolvedArtifact> declaredButUnused = possiblyUnused.stream()
-                .filter(artifact -> !shouldIgnore(artifact))
+                .filter(artifact -> !ignore.contains(BaselineExactDependencies.asString(artifact)))
                 .sorted(Comparator.comparing(BaselineExactDependencies::asString))
                 .collect(Collectors.toList());
         if (!declaredButUnused.isEmpty()) {
@@ -104,7 +137,7 @@ public class CheckUnusedDependenciesTask extends DefaultTask {
             builder.append(String.format(
                     "Found %s dependencies unused during compilation, please delete them from '%s' or choose one of "
                             + "the suggested fixes:\n",
-                    declaredButUnused.size(), buildFile()));
+                    declaredButUnused.size(), buildFile));
             for (ResolvedArtifact resolvedArtifact : declaredButUnused) {
                 builder.append('\t')
                         .append(BaselineExactDependencies.asDependencyStringWithName(resolvedArtifact))
@@ -113,13 +146,13 @@ public class CheckUnusedDependenciesTask extends DefaultTask {
                 // Suggest fixes by looking at all transitive classes, filtering the ones we have declarations on,
                 // and mapping the remaining ones back to the jars they came from.
                 ResolvedDependency dependency =
-                        BaselineExactDependencies.INDEXES.artifactsFromDependency(resolvedArtifact);
+                        index.artifactsFromDependency(resolvedArtifact);
                 Set<ResolvedArtifact> didYouMean = dependency.getAllModuleArtifacts().stream()
                         .filter(artifact ->
                                 BaselineExactDependencies.VALID_ARTIFACT_EXTENSIONS.contains(artifact.getExtension()))
-                        .flatMap(BaselineExactDependencies.INDEXES::classesFromArtifact)
-                        .filter(referencedClasses()::contains)
-                        .map(BaselineExactDependencies.INDEXES::classToDependency)
+                        .flatMap(index::classesFromArtifact)
+                        .filter(referencedClasses::contains)
+                        .map(index::classToDependency)
                         .filter(Optional::isPresent)
                         .map(Optional::get)
                         .filter(artifact -> !declaredArtifacts.contains(artifact))
@@ -161,9 +194,7 @@ public class CheckUnusedDependenciesTask extends DefaultTask {
 
     /** All classes which are mentioned in this project's source code. */
     private Set<String> referencedClasses() {
-        return Streams.stream(sourceClasses.get().iterator())
-                .flatMap(BaselineExactDependencies::referencedClasses)
-                .collect(Collectors.toSet());
+        return ReferencedClassesTask.readReferencedClasses(referencedClassesFile.get().getAsFile());
     }
 
     private Path buildFile() {
@@ -173,10 +204,6 @@ public class CheckUnusedDependenciesTask extends DefaultTask {
                 .relativize(getProject().getBuildFile().toPath());
     }
 
-    private boolean shouldIgnore(ResolvedArtifact artifact) {
-        return ignore.get().contains(BaselineExactDependencies.asString(artifact));
-    }
-
     @Classpath
     public final Provider<List<Configuration>> getDependenciesConfigurations() {
         return dependenciesConfigurations;
@@ -207,13 +234,42 @@ public class CheckUnusedDependenciesTask extends DefaultTask {
         this.sourceOnlyConfigurations.add(Objects.requireNonNull(configuration));
     }
 
-    @Classpath
+    @Internal
+    public final Property<BaselineExactDependencies.Indexes> getIndexes() {
+        return indexes;
+    }
+
+    /** The classes referenced by this source set, as recorded by {@link ReferencedClassesTask}. */
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public final RegularFileProperty getReferencedClasses() {
+        return referencedClassesFile;
+    }
+
+    /**
+     * The classes set by {@link #setSourceClasses}, if any.
+     *
+     * @deprecated The referenced classes are read from {@link #getReferencedClasses()}.
+     */
+    @Deprecated
+    @Internal
     public final Provider<FileCollection> getSourceClasses() {
         return sourceClasses;
     }
 
+    /**
+     * Analyzes {@code newClasses} in a {@link ReferencedClassesTask} of this task's own, and reads the referenced
+     * classes from its output.
+     *
+     * @deprecated Set {@link #getReferencedClasses()} to the output of a {@link ReferencedClassesTask} instead.
+     */
+    @Deprecated
     public final void setSourceClasses(FileCollection newClasses) {
-        this.sourceClasses.set(getProject().files(newClasses));
+        TaskProvider<ReferencedClassesTask> referencedClasses =
+                ReferencedClassesTask.forDeprecatedSourceClasses(this, newClasses);
+        this.sourceClasses.set(newClasses);
+        this.referencedClassesFile.set(referencedClasses.flatMap(ReferencedClassesTask::getReferencedClassesFile));
+        dependsOn(referencedClasses);
     }
 
     public final void ignore(Provider<Set<String>> value) {
@@ -18,85 +18,141 @@ package com.palantir.baseline.tasks;
 
 import static java.util.stream.Collectors.toSet;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
-import com.google.common.hash.Hashing;
-import com.google.common.hash.HashingInputStream;
-import com.google.common.io.ByteStreams;
+import com.palantir.baseline.plugins.JarClassIndexCache;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.ModuleVersionIdentifier;
 import org.gradle.api.artifacts.ResolvedArtifact;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 import org.slf4j.Logger;
 
 public final class ClassUniquenessAnalyzer {
 
     private final Map<Set<ModuleVersionIdentifier>, Set<String>> jarsToClasses = new HashMap<>();
     private final Map<String, Set<HashCode>> classToHashCodes = new HashMap<>();
+    private final Map<String, ShadowedClass> shadowedClasses = new HashMap<>();
+    private ClassUniquenessResult result = ClassUniquenessResult.empty();
+    private final ClassUniquenessScanner scanner;
+    private final JarClassIndexCache jarCache;
+    private final int release;
+    private final boolean useZipChecksums;
     private final Logger log;
 
     public ClassUniquenessAnalyzer(Logger log) {
+        this(log, new ClassUniquenessScanner(), JarClassIndexCache.disabled());
+    }
+
+    /** Analyzers sharing a {@code scanner} only read each jar once, however many configurations contain it. */
+    public ClassUniquenessAnalyzer(Logger log, ClassUniquenessScanner scanner, JarClassIndexCache jarCache) {
+        this(log, scanner, jarCache, ClassUniquenessScanner.BASE_RELEASE, false);
+    }
+
+    /**
+     * Only the classes that Java {@code release} would load are compared, so each versioned class of a multi-release
+     * jar replaces its base class from that release onwards.
+     *
+     * <p>If {@code useZipChecksums} is set, identically named classes with the same CRC-32 and size in their jars'
+     * central directories are assumed to be identical, and only classes whose checksums differ are hashed. This
+     * avoids inflating duplicates such as shaded copies of the same library, at the risk of missing a clash whose
+     * CRC-32s happen to collide.
+     */
+    public ClassUniquenessAnalyzer(
+            Logger log,
+            ClassUniquenessScanner scanner,
+            JarClassIndexCache jarCache,
+            int release,
+            boolean useZipChecksums) {
         this.log = log;
+        this.scanner = scanner;
+        this.jarCache = jarCache;
+        this.release = release;
+        this.useZipChecksums = useZipChecksums;
     }
 
     public void analyzeConfiguration(Configuration configuration) {
-        Instant before = Instant.now();
-        Set<ResolvedArtifact> dependencies =
-                configuration.getResolvedConfiguration().getResolvedArtifacts();
+        analyzeArtifacts(configuration.getResolvedConfiguration().getResolvedArtifacts());
+    }
 
-        // we use these temporary maps to accumulate information as we process each jar,
-        // so they may include singletons which we filter out later
-        Map<String, Set<ModuleVersionIdentifier>> classToJars = new HashMap<>();
-        Map<String, Set<HashCode>> tempClassToHashCodes = new HashMap<>();
+    /**
+     * Only classes that are contained in more than one jar can clash, so we first list the classes in every jar using
+     * just its central directory, and then only hash the classes whose names collide.
+     */
+    public void analyzeArtifacts(Collection<ResolvedArtifact> dependencies) {
+        Instant before = Instant.now();
 
-        dependencies.stream().forEach(resolvedArtifact -> {
-            File file = resolvedArtifact.getFile();
-            if (!file.exists()) {
-                log.info("Skipping non-existent jar {}: {}", resolvedArtifact, file);
-                return;
+        List<ResolvedArtifact> existingArtifacts = new ArrayList<>();
+        for (ResolvedArtifact resolvedArtifact : dependencies) {
+            if (resolvedArtifact.getFile().exists()) {
+                existingArtifacts.add(resolvedArtifact);
+            } else {
+                log.info("Skipping non-existent jar {}: {}", resolvedArtifact, resolvedArtifact.getFile());
             }
+        }
 
-            try (FileInputStream fileInputStream = new FileInputStream(file);
-                    JarInputStream jarInputStream = new JarInputStream(fileInputStream)) {
-                JarEntry entry;
-                while ((entry = jarInputStream.getNextJarEntry()) != null) {
-                    if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
-                        continue;
-                    }
-
-                    if (entry.getName().contains("module-info.class")) {
-                        // Java 9 allows jars to have a module-info.class file in the root,
-                        // we shouldn't complain about these.
-                        continue;
-                    }
-
-                    String className = entry.getName().replaceAll("/", ".").replaceAll(".class", "");
-                    HashingInputStream inputStream = new HashingInputStream(Hashing.sha256(), jarInputStream);
-                    ByteStreams.exhaust(inputStream);
-
-                    multiMapPut(
-                            classToJars,
-                            className,
-                            resolvedArtifact.getModuleVersion().getId());
-
-                    multiMapPut(tempClassToHashCodes, className, inputStream.hash());
+        // Phase 1: find all classes that appear in more than one jar, without inflating any entries
+        List<Map<String, Long>> fingerprintsInJars =
+                scanner.classFingerprintsInJars(files(existingArtifacts), release);
+        Map<ResolvedArtifact, Map<String, Long>> fingerprintsByArtifact = new HashMap<>();
+        Map<String, ResolvedArtifact> firstArtifacts = new HashMap<>();
+        Map<String, List<ResolvedArtifact>> collidingArtifacts = new HashMap<>();
+        for (int i = 0; i < existingArtifacts.size(); i++) {
+            ResolvedArtifact resolvedArtifact = existingArtifacts.get(i);
+            fingerprintsByArtifact.put(resolvedArtifact, fingerprintsInJars.get(i));
+            for (String className : fingerprintsInJars.get(i).keySet()) {
+                ResolvedArtifact first = firstArtifacts.putIfAbsent(className, resolvedArtifact);
+                if (first != null) {
+                    collidingArtifacts
+                            .computeIfAbsent(className, _name -> new ArrayList<>(ImmutableList.of(first)))
+                            .add(resolvedArtifact);
                 }
-            } catch (IOException e) {
-                log.error("Failed to read JarFile {}", resolvedArtifact, e);
-                throw new RuntimeException(e);
+            }
+        }
+
+        // Phase 2: hash only the colliding classes, skipping those known to be identical
+        Map<String, List<ResolvedArtifact>> classesToHash = new HashMap<>();
+        collidingArtifacts.forEach((className, artifacts) -> {
+            if (!useZipChecksums || !sameFingerprints(className, artifacts, fingerprintsByArtifact)) {
+                classesToHash.put(className, artifacts);
             }
         });
+        Map<ResolvedArtifact, Set<String>> classesToHashByArtifact = new LinkedHashMap<>();
+        classesToHash.forEach((className, artifacts) -> artifacts.forEach(resolvedArtifact ->
+                classesToHashByArtifact.computeIfAbsent(resolvedArtifact, _artifact -> new HashSet<>())
+                        .add(className)));
+        List<ResolvedArtifact> artifactsToHash = new ArrayList<>(classesToHashByArtifact.keySet());
+        List<Map<String, HashCode>> classHashesInJars = scanner.classHashesInJars(
+                files(artifactsToHash), new ArrayList<>(classesToHashByArtifact.values()), release, jarCache);
+        Map<ResolvedArtifact, Map<String, HashCode>> classHashesByArtifact = new HashMap<>();
+        for (int i = 0; i < artifactsToHash.size(); i++) {
+            classHashesByArtifact.put(artifactsToHash.get(i), classHashesInJars.get(i));
+        }
+
+        Map<String, Set<ModuleVersionIdentifier>> classToJars = new HashMap<>();
+        Map<String, Set<HashCode>> tempClassToHashCodes = new HashMap<>();
+        collidingArtifacts.forEach((className, artifacts) -> artifacts.forEach(resolvedArtifact ->
+                multiMapPut(classToJars, className, resolvedArtifact.getModuleVersion().getId())));
+        classesToHash.forEach((className, artifacts) -> artifacts.forEach(resolvedArtifact -> multiMapPut(
+                tempClassToHashCodes,
+                className,
+                classHashesByArtifact.get(resolvedArtifact).get(className))));
 
         // discard all the classes that only come from one jar - these are completely safe!
         classToJars.entrySet().stream()
@@ -109,20 +165,33 @@ public final class ClassUniquenessAnalyzer {
                 .forEach(entry ->
                         entry.getValue().forEach(value -> multiMapPut(classToHashCodes, entry.getKey(), value)));
 
+        // describe which variant of each differing class is loaded, and how much the variants differ
+        Map<String, List<ResolvedArtifact>> differingArtifacts = new HashMap<>();
+        tempClassToHashCodes.forEach((className, hashCodes) -> {
+            if (hashCodes.size() > 1) {
+                differingArtifacts.put(className, collidingArtifacts.get(className));
+            }
+        });
+        shadowedClasses.putAll(shadowedClasses(differingArtifacts, classHashesByArtifact));
+
+        // index the differing classes once, rather than every time they're queried
+        result = ClassUniquenessResult.of(jarsToClasses, classToHashCodes.keySet(), shadowedClasses.values());
+
         Instant after = Instant.now();
         log.info(
-                "Checked {} classes from {} dependencies for uniqueness ({}ms)",
-                classToJars.size(),
+                "Checked {} classes from {} dependencies for uniqueness, hashing {} jars with {} of {} colliding "
+                        + "classes ({}ms)",
+                firstArtifacts.size(),
                 dependencies.size(),
+                artifactsToHash.size(),
+                classesToHash.size(),
+                collidingArtifacts.size(),
                 Duration.between(before, after).toMillis());
     }
 
-    /**
-     * Any groups jars that all contain some identically named classes. Note: may contain non-scary duplicates - class
-     * files which are 100% identical, so their clashing name doesn't have any effect.
-     */
-    private Collection<Set<ModuleVersionIdentifier>> getProblemJars() {
-        return jarsToClasses.keySet();
+    /** The problems found by all analyses so far. */
+    public ClassUniquenessResult getResult() {
+        return result;
     }
 
     /** Class names that appear in all of the given jars. */
@@ -132,16 +201,80 @@ public final class ClassUniquenessAnalyzer {
 
     /** Jars which contain identically named classes with non-identical implementations. */
     public Collection<Set<ModuleVersionIdentifier>> getDifferingProblemJars() {
-        return getProblemJars().stream()
-                .filter(jars -> getDifferingSharedClassesInProblemJars(jars).size() > 0)
-                .collect(Collectors.toSet());
+        return ImmutableSet.copyOf(result.differingProblemJars());
     }
 
     /** Class names which appear in all of the given jars and also have non-identical implementations. */
     public Set<String> getDifferingSharedClassesInProblemJars(Collection<ModuleVersionIdentifier> problemJars) {
-        return getSharedClassesInProblemJars(problemJars).stream()
-                .filter(classToHashCodes::containsKey)
+        return result.differingClasses(problemJars);
+    }
+
+    /** Only reads the differing classes, which are usually a tiny fraction of the classes that collide. */
+    private Map<String, ShadowedClass> shadowedClasses(
+            Map<String, List<ResolvedArtifact>> differingArtifacts,
+            Map<ResolvedArtifact, Map<String, HashCode>> classHashesByArtifact) {
+        Map<ResolvedArtifact, Set<String>> differingClassesByArtifact = new HashMap<>();
+        differingArtifacts.forEach((className, artifacts) -> artifacts.forEach(
+                resolvedArtifact -> multiMapPut(differingClassesByArtifact, resolvedArtifact, className)));
+        Map<ResolvedArtifact, Map<String, byte[]>> classFilesByArtifact = new HashMap<>();
+        differingClassesByArtifact.forEach((resolvedArtifact, classNames) -> classFilesByArtifact.put(
+                resolvedArtifact, scanner.classFiles(resolvedArtifact.getFile(), classNames, release)));
+
+        Map<String, ShadowedClass> shadowed = new HashMap<>();
+        differingArtifacts.forEach((className, artifacts) -> {
+            // the artifacts are in classpath order, so the first one wins
+            List<ShadowedClass.Variant> variants = new ArrayList<>();
+            for (ResolvedArtifact resolvedArtifact : artifacts) {
+                byte[] classFile = classFilesByArtifact.get(resolvedArtifact).get(className);
+                if (classFile != null) {
+                    variants.add(new ShadowedClass.Variant(
+                            resolvedArtifact.getModuleVersion().getId(),
+                            classHashesByArtifact.get(resolvedArtifact).get(className),
+                            classFile.length,
+                            methodCount(className, classFile)));
+                }
+            }
+            if (variants.size() > 1) {
+                shadowed.put(className, new ShadowedClass(className, variants));
+            }
+        });
+        return shadowed;
+    }
+
+    /** Class files which can't be parsed are counted as having no methods. */
+    private int methodCount(String className, byte[] classFile) {
+        AtomicInteger methodCount = new AtomicInteger();
+        try {
+            new ClassReader(classFile)
+                    .accept(
+                            new ClassVisitor(Opcodes.ASM8) {
+                                @Override
+                                public MethodVisitor visitMethod(
+                                        int access, String name, String desc, String signature, String[] exceptions) {
+                                    methodCount.incrementAndGet();
+                                    return null;
+                                }
+                            },
+                            ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        } catch (RuntimeException e) {
+            log.debug("Failed to count the methods of {}", className, e);
+            return 0;
+        }
+        return methodCount.get();
+    }
+
+    private static boolean sameFingerprints(
+            String className,
+            List<ResolvedArtifact> artifacts,
+            Map<ResolvedArtifact, Map<String, Long>> fingerprintsByArtifact) {
+        Set<Long> fingerprints = artifacts.stream()
+                .map(resolvedArtifact -> fingerprintsByArtifact.get(resolvedArtifact).get(className))
                 .collect(toSet());
+        return fingerprints.size() == 1 && !fingerprints.contains(ClassUniquenessScanner.UNKNOWN_FINGERPRINT);
+    }
+
+    private static List<File> files(List<ResolvedArtifact> artifacts) {
+        return artifacts.stream().map(ResolvedArtifact::getFile).collect(Collectors.toList());
     }
 
     private static <K, V> void multiMapPut(Map<K, Set<V>> map, K key, V value) {
@@ -0,0 +1,101 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.tasks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import org.gradle.api.artifacts.ModuleVersionIdentifier;
+
+/**
+ * The problems found by a {@link ClassUniquenessAnalyzer}: each group of jars that contain identically named classes
+ * with non-identical implementations, the names of those classes, and which implementation of each is loaded.
+ * Computed once at the end of an analysis, so it can be queried and rendered without re-examining any classes.
+ */
+public final class ClassUniquenessResult {
+    private static final ClassUniquenessResult EMPTY =
+            new ClassUniquenessResult(ImmutableMap.of(), ImmutableList.of());
+
+    private final ImmutableMap<ImmutableSet<ModuleVersionIdentifier>, ImmutableSortedSet<String>> differingClasses;
+    private final ImmutableList<ShadowedClass> shadowedClasses;
+
+    private ClassUniquenessResult(
+            ImmutableMap<ImmutableSet<ModuleVersionIdentifier>, ImmutableSortedSet<String>> differingClasses,
+            ImmutableList<ShadowedClass> shadowedClasses) {
+        this.differingClasses = differingClasses;
+        this.shadowedClasses = shadowedClasses;
+    }
+
+    static ClassUniquenessResult empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Keeps only the classes shared by each group of jars which have more than one implementation, dropping groups
+     * of jars whose shared classes are all identical.
+     */
+    static ClassUniquenessResult of(
+            Map<Set<ModuleVersionIdentifier>, Set<String>> sharedClasses,
+            Set<String> classesWithDifferingHashes,
+            Collection<ShadowedClass> shadowedClasses) {
+        ImmutableMap.Builder<ImmutableSet<ModuleVersionIdentifier>, ImmutableSortedSet<String>> differingClasses =
+                ImmutableMap.builder();
+        sharedClasses.forEach((jars, classes) -> {
+            ImmutableSortedSet<String> differing = classes.stream()
+                    .filter(classesWithDifferingHashes::contains)
+                    .collect(ImmutableSortedSet.toImmutableSortedSet(String::compareTo));
+            if (!differing.isEmpty()) {
+                differingClasses.put(ImmutableSet.copyOf(jars), differing);
+            }
+        });
+        return new ClassUniquenessResult(
+                differingClasses.build(),
+                shadowedClasses.stream()
+                        .sorted(Comparator.comparing(ShadowedClass::getClassName))
+                        .collect(ImmutableList.toImmutableList()));
+    }
+
+    public boolean isEmpty() {
+        return differingClasses.isEmpty();
+    }
+
+    /** Jars which contain identically named classes with non-identical implementations. */
+    public ImmutableSet<ImmutableSet<ModuleVersionIdentifier>> differingProblemJars() {
+        return differingClasses.keySet();
+    }
+
+    /** Class names which appear in all of the given jars and also have non-identical implementations. */
+    public ImmutableSortedSet<String> differingClasses(Collection<ModuleVersionIdentifier> problemJars) {
+        ImmutableSortedSet<String> classes = differingClasses.get(ImmutableSet.copyOf(problemJars));
+        return classes != null ? classes : ImmutableSortedSet.of();
+    }
+
+    /** Which variant of each differing class is loaded, ordered by class name. */
+    public ImmutableList<ShadowedClass> shadowedClasses() {
+        return shadowedClasses;
+    }
+
+    /** Every group of {@link #differingProblemJars()} with its {@link #differingClasses}. */
+    public ImmutableMap<ImmutableSet<ModuleVersionIdentifier>, ImmutableSortedSet<String>> differingClassesByJars() {
+        return differingClasses;
+    }
+}
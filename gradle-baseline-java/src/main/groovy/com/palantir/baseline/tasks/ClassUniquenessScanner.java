@@ -0,0 +1,405 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.tasks;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.palantir.baseline.plugins.ClassFileNames;
+import com.palantir.baseline.plugins.JarClassIndexCache;
+import com.palantir.baseline.plugins.JarClassIndexCache.JarKey;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import org.gradle.api.artifacts.ModuleVersionIdentifier;
+import org.gradle.api.artifacts.ResolvedArtifact;
+
+/**
+ * Lists and hashes the classes in jars for {@link ClassUniquenessAnalyzer}, remembering the results for each jar so
+ * that checking several configurations (or projects) which share most of their jars only reads each jar once. Jars
+ * are read concurrently.
+ *
+ * <p>Listing a jar also records a fingerprint of each class from the central directory, its CRC-32 and uncompressed
+ * size, which is enough to tell that two classes differ without inflating either of them.
+ *
+ * <p>Multi-release jars may contain a different version of a class for each Java release, so callers pick the release
+ * the classes will be loaded by. The versioned entries of jars that aren't multi-release are never loaded, so they are
+ * skipped entirely.
+ *
+ * <p>Classes are only hashed once they clash with a class in another jar, which most classes of a jar never do, so each
+ * jar remembers the hashes of just those classes. They're also stored in the {@link JarClassIndexCache}, keyed by the
+ * checksum of the jar, so later builds only hash the classes that no earlier build has needed.
+ *
+ * <p>Projects of a large build often have identical classpaths, so the result of analyzing a classpath is remembered
+ * too, and every other configuration with the same jars (and module versions) reuses it.
+ */
+@ThreadSafe
+public final class ClassUniquenessScanner {
+    public static final long DEFAULT_MAX_CACHED_CLASSES = 2_000_000;
+    private static final long MAX_CACHED_RESULTS = 10_000;
+    /** The last release before multi-release jars, which only ever loads their base entries. */
+    public static final int BASE_RELEASE = 8;
+    /** The fingerprint of entries whose CRC-32 or size is missing from the central directory. */
+    public static final long UNKNOWN_FINGERPRINT = -1;
+    private static final String MULTI_RELEASE = "Multi-Release";
+
+    private final ExecutorService executor;
+    /** Jars are only remembered while their size and modification time are unchanged. */
+    private final LoadingCache<JarKey, ScannedJar> scannedJars;
+    private final Cache<ClasspathKey, ClassUniquenessResult> results =
+            CacheBuilder.newBuilder().maximumSize(MAX_CACHED_RESULTS).build();
+    private final AtomicLong hashedClasses = new AtomicLong();
+
+    public ClassUniquenessScanner() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_CACHED_CLASSES);
+    }
+
+    /**
+     * Jars are read using at most {@code parallelism} threads, which are released when idle. Once the remembered jars
+     * contain more than {@code maxCachedClasses} classes, the least recently used jars are forgotten.
+     */
+    public ClassUniquenessScanner(int parallelism, long maxCachedClasses) {
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
+                parallelism,
+                parallelism,
+                10,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("baseline-class-uniqueness-%d")
+                        .setDaemon(true)
+                        .build());
+        threadPool.allowCoreThreadTimeOut(true);
+        this.executor = threadPool;
+        this.scannedJars = CacheBuilder.newBuilder()
+                .maximumWeight(maxCachedClasses)
+                .<JarKey, ScannedJar>weigher((_key, scannedJar) -> scannedJar.fingerprints.size())
+                .build(CacheLoader.from(ClassUniquenessScanner::listClasses));
+    }
+
+    /**
+     * The fingerprint of each class in each of {@code jars} that Java {@code release} loads, keyed by class name, in
+     * the same order. Classes with different fingerprints are certainly different, whereas classes with equal
+     * fingerprints are identical unless their CRC-32s collide.
+     */
+    public List<Map<String, Long>> classFingerprintsInJars(List<File> jars, int release) {
+        return forEachJar(jars, scannedJar -> scannedJar.forRelease(scannedJar.fingerprints, release));
+    }
+
+    /**
+     * The content hash of each of {@code classNames} that Java {@code release} loads from the jar at the same index
+     * of {@code jars}, keyed by class name, in the same order.
+     */
+    public List<Map<String, HashCode>> classHashesInJars(
+            List<File> jars, List<Set<String>> classNames, int release, JarClassIndexCache jarCache) {
+        List<Future<Map<String, HashCode>>> results = new ArrayList<>();
+        for (int i = 0; i < jars.size(); i++) {
+            File jar = jars.get(i);
+            Set<String> jarClassNames = classNames.get(i);
+            results.add(executor.submit(() -> scannedJars
+                    .getUnchecked(new JarKey(jar))
+                    .hashes(jarClassNames, release, jarCache, this::hashEntries)));
+        }
+        return results.stream().map(Futures::getUnchecked).collect(Collectors.toList());
+    }
+
+    /** How many class files this scanner has inflated and hashed so far. */
+    public long hashedClasses() {
+        return hashedClasses.get();
+    }
+
+    /**
+     * The contents of the class files that Java {@code release} loads for each of {@code classNames} in {@code jar},
+     * keyed by class name. This inflates every class, so should only be used for the handful of classes that clash.
+     */
+    public Map<String, byte[]> classFiles(File jar, Set<String> classNames, int release) {
+        Map<String, String> entryNames = scannedJars.getUnchecked(new JarKey(jar)).entryNames(classNames, release);
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            Map<String, byte[]> classFiles = new HashMap<>();
+            for (Map.Entry<String, String> entryName : entryNames.entrySet()) {
+                ZipEntry entry = zipFile.getEntry(entryName.getValue());
+                if (entry != null) {
+                    try (InputStream input = zipFile.getInputStream(entry)) {
+                        classFiles.put(entryName.getKey(), ByteStreams.toByteArray(input));
+                    }
+                }
+            }
+            return classFiles;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read JarFile " + jar, e);
+        }
+    }
+
+    /**
+     * The result of analyzing {@code artifacts} for Java {@code release}, which is only computed by {@code analysis}
+     * the first time that an identical classpath is analyzed. Concurrent analyses of the same classpath wait for the
+     * first one to finish rather than repeating it.
+     */
+    public ClassUniquenessResult analysis(
+            List<ResolvedArtifact> artifacts,
+            int release,
+            boolean useZipChecksums,
+            Supplier<ClassUniquenessResult> analysis) {
+        try {
+            return results.get(new ClasspathKey(artifacts, release, useZipChecksums), analysis::get);
+        } catch (ExecutionException e) {
+            throw new UncheckedExecutionException(e.getCause());
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        scannedJars.invalidateAll();
+        results.invalidateAll();
+    }
+
+    private <T> List<T> forEachJar(List<File> jars, Function<ScannedJar, T> function) {
+        List<Future<T>> results = jars.stream()
+                .map(jar -> executor.submit(() -> function.apply(scannedJars.getUnchecked(new JarKey(jar)))))
+                .collect(Collectors.toList());
+        return results.stream().map(Futures::getUnchecked).collect(Collectors.toList());
+    }
+
+    private static ScannedJar listClasses(JarKey jar) {
+        try (ZipFile zipFile = new ZipFile(jar.file())) {
+            Map<String, Long> fingerprints = new LinkedHashMap<>();
+            Map<String, Long> versionedFingerprints = new LinkedHashMap<>();
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String className = className(entry);
+                if (className == null) {
+                    continue;
+                }
+                if (ClassFileNames.release(entry.getName()) == 0) {
+                    fingerprints.put(className, fingerprint(entry));
+                } else {
+                    versionedFingerprints.put(entry.getName(), fingerprint(entry));
+                }
+            }
+
+            if (versionedFingerprints.isEmpty() || !isMultiRelease(zipFile)) {
+                return new ScannedJar(jar, ImmutableMap.copyOf(fingerprints), ImmutableList.of());
+            }
+            fingerprints.putAll(versionedFingerprints);
+            ImmutableList<String> versionedEntries = versionedFingerprints.keySet().stream()
+                    .sorted(Comparator.comparingInt(ClassFileNames::release))
+                    .collect(ImmutableList.toImmutableList());
+            return new ScannedJar(jar, ImmutableMap.copyOf(fingerprints), versionedEntries);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read JarFile " + jar.file(), e);
+        }
+    }
+
+    /** Inflates and hashes only the given entries, keyed by entry name. */
+    private Map<String, HashCode> hashEntries(File jar, Set<String> entryNames) throws IOException {
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            Map<String, HashCode> hashes = new HashMap<>();
+            for (String entryName : entryNames) {
+                ZipEntry entry = zipFile.getEntry(entryName);
+                if (entry == null) {
+                    continue;
+                }
+                try (InputStream input = zipFile.getInputStream(entry);
+                        HashingInputStream hashing = new HashingInputStream(Hashing.sha256(), input)) {
+                    ByteStreams.exhaust(hashing);
+                    hashes.put(entryName, hashing.hash());
+                    hashedClasses.incrementAndGet();
+                }
+            }
+            return hashes;
+        }
+    }
+
+    private static boolean isMultiRelease(ZipFile zipFile) throws IOException {
+        ZipEntry manifestEntry = zipFile.getEntry(JarFile.MANIFEST_NAME);
+        if (manifestEntry == null) {
+            return false;
+        }
+        try (InputStream input = zipFile.getInputStream(manifestEntry)) {
+            return Boolean.parseBoolean(new Manifest(input).getMainAttributes().getValue(MULTI_RELEASE));
+        }
+    }
+
+    /** Returns null for entries which aren't classes that could clash. */
+    @Nullable
+    private static String className(ZipEntry entry) {
+        String className = ClassFileNames.toClassName(entry.getName());
+        // Java 9 allows jars to have a module-info.class file in the root, we shouldn't complain about these.
+        return className == null || ClassFileNames.isModuleInfo(className) ? null : className;
+    }
+
+    private static long fingerprint(ZipEntry entry) {
+        if (entry.getCrc() < 0 || entry.getSize() < 0 || entry.getSize() > 0xFFFFFFFFL) {
+            return UNKNOWN_FINGERPRINT;
+        }
+        return entry.getSize() << 32 | entry.getCrc();
+    }
+
+    /** Results refer to jars by module version, so classpaths only match if their jars have the same ones. */
+    private static final class ClasspathKey {
+        private final ImmutableList<JarKey> jars;
+        private final ImmutableList<ModuleVersionIdentifier> moduleVersions;
+        private final int release;
+        private final boolean useZipChecksums;
+
+        private ClasspathKey(List<ResolvedArtifact> artifacts, int release, boolean useZipChecksums) {
+            this.jars = artifacts.stream()
+                    .map(artifact -> new JarKey(artifact.getFile()))
+                    .collect(ImmutableList.toImmutableList());
+            this.moduleVersions = artifacts.stream()
+                    .map(artifact -> artifact.getModuleVersion().getId())
+                    .collect(ImmutableList.toImmutableList());
+            this.release = release;
+            this.useZipChecksums = useZipChecksums;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (other == null || getClass() != other.getClass()) {
+                return false;
+            }
+            ClasspathKey that = (ClasspathKey) other;
+            return release == that.release
+                    && useZipChecksums == that.useZipChecksums
+                    && jars.equals(that.jars)
+                    && moduleVersions.equals(that.moduleVersions);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(jars, moduleVersions, release, useZipChecksums);
+        }
+    }
+
+    private static final class ScannedJar {
+        private final JarKey jar;
+        /**
+         * Base entries are keyed by class name, and the versioned entries of multi-release jars by entry name, which
+         * can't clash with any class name.
+         */
+        private final ImmutableMap<String, Long> fingerprints;
+        /** The versioned entries of multi-release jars, ordered by release. */
+        private final ImmutableList<String> versionedEntries;
+        /** The hashes of the entries that have clashed so far, keyed by entry name. */
+        private final Map<String, HashCode> hashes = new HashMap<>();
+
+        private ScannedJar(
+                JarKey jar, ImmutableMap<String, Long> fingerprints, ImmutableList<String> versionedEntries) {
+            this.jar = jar;
+            this.fingerprints = fingerprints;
+            this.versionedEntries = versionedEntries;
+        }
+
+        /**
+         * Keys the classes that {@code release} loads by class name: each versioned entry replaces the base entry (or
+         * an entry for an earlier release) of its class, as long as it's for {@code release} or earlier.
+         */
+        <T> Map<String, T> forRelease(Map<String, T> entries, int release) {
+            if (versionedEntries.isEmpty()) {
+                return entries;
+            }
+            Map<String, T> classes = new HashMap<>(entries);
+            versionedEntries.forEach(classes::remove);
+            for (String entryName : versionedEntries) {
+                if (ClassFileNames.release(entryName) <= release) {
+                    classes.put(ClassFileNames.toClassName(entryName), entries.get(entryName));
+                }
+            }
+            return classes;
+        }
+
+        /** The name of the entry that {@code release} loads for each of {@code classNames}. */
+        Map<String, String> entryNames(Set<String> classNames, int release) {
+            Map<String, String> entryNames = new HashMap<>();
+            for (String className : classNames) {
+                entryNames.put(className, className.replace('.', '/') + ".class");
+            }
+            for (String entryName : versionedEntries) {
+                String className = ClassFileNames.toClassName(entryName);
+                if (ClassFileNames.release(entryName) <= release && classNames.contains(className)) {
+                    entryNames.put(className, entryName);
+                }
+            }
+            return entryNames;
+        }
+
+        /** Only hashes the entries for {@code classNames} that haven't been hashed before. */
+        synchronized Map<String, HashCode> hashes(
+                Set<String> classNames, int release, JarClassIndexCache jarCache, JarClassIndexCache.JarHasher hasher) {
+            Map<String, String> entryNames = entryNames(classNames, release);
+            Set<String> missing = entryNames.values().stream()
+                    .filter(entryName -> !hashes.containsKey(entryName))
+                    .collect(Collectors.toSet());
+            if (!missing.isEmpty()) {
+                try {
+                    // The cache entry is keyed on the same size and modification time, so the jar isn't read again
+                    hashes.putAll(jarCache.entryHashesInJar(jar, missing, hasher));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to read JarFile " + jar.file(), e);
+                }
+            }
+            Map<String, HashCode> classHashes = new HashMap<>();
+            entryNames.forEach((className, entryName) -> {
+                HashCode hash = hashes.get(entryName);
+                if (hash != null) {
+                    classHashes.put(className, hash);
+                }
+            });
+            return classHashes;
+        }
+    }
+}
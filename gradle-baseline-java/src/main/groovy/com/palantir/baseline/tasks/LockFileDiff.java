@@ -0,0 +1,197 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.tasks;
+
+import com.google.common.base.Splitter;
+import difflib.Delta;
+import difflib.DiffUtils;
+import difflib.Patch;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Compares a lock file on disk with its expected contents one line at a time, so that neither the whole file nor a
+ * diff of all of it has to be held in memory. Lock files of large projects can have tens of thousands of lines.
+ *
+ * <p>Only the first {@link #WINDOW_LINES} lines from the first difference onwards are diffed, which is plenty to tell
+ * which jars have changed, and the diff is cut off after {@link #MAX_DIFF_LINES} lines.
+ */
+public final class LockFileDiff {
+    private static final int CONTEXT_LINES = 3;
+    private static final int WINDOW_LINES = 1000;
+    private static final int MAX_DIFF_LINES = 200;
+    private static final Pattern HUNK_HEADER = Pattern.compile("^@@ -(\\d+),(\\d+) \\+(\\d+),(\\d+) @@$");
+
+    private LockFileDiff() {}
+
+    /** Returns a unified diff from {@code lockFile} to {@code expected}, or empty if they're identical. */
+    public static Optional<String> diff(File lockFile, String expected) {
+        try (BufferedReader reader = Files.newBufferedReader(lockFile.toPath(), StandardCharsets.UTF_8)) {
+            return diff(new LineIterator(reader), Splitter.on('\n').split(expected).iterator());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + lockFile, e);
+        }
+    }
+
+    private static Optional<String> diff(Iterator<String> onDisk, Iterator<String> expected) {
+        Deque<String> context = new ArrayDeque<>(CONTEXT_LINES);
+        int line = 0;
+        while (onDisk.hasNext() && expected.hasNext()) {
+            String onDiskLine = onDisk.next();
+            String expectedLine = expected.next();
+            if (!onDiskLine.equals(expectedLine)) {
+                return Optional.of(
+                        diffWindow(line - context.size(), context, onDiskLine, onDisk, expectedLine, expected));
+            }
+            if (context.size() == CONTEXT_LINES) {
+                context.removeFirst();
+            }
+            context.addLast(onDiskLine);
+            line++;
+        }
+        if (!onDisk.hasNext() && !expected.hasNext()) {
+            return Optional.empty();
+        }
+        return Optional.of(diffWindow(
+                line - context.size(),
+                context,
+                onDisk.hasNext() ? onDisk.next() : null,
+                onDisk,
+                expected.hasNext() ? expected.next() : null,
+                expected));
+    }
+
+    /** Diffs the lines from the first difference onwards, preceded by the identical {@code context} lines. */
+    private static String diffWindow(
+            int offset,
+            Deque<String> context,
+            @Nullable String onDiskLine,
+            Iterator<String> onDisk,
+            @Nullable String expectedLine,
+            Iterator<String> expected) {
+        List<String> onDiskWindow = window(context, onDiskLine, onDisk);
+        List<String> expectedWindow = window(context, expectedLine, expected);
+        boolean truncated = onDisk.hasNext() || expected.hasNext();
+
+        // Differences at the end of a truncated window may just be where the window was cut off
+        Patch<String> fullPatch = DiffUtils.diff(onDiskWindow, expectedWindow);
+        Patch<String> patch = new Patch<>();
+        for (Delta<String> delta : fullPatch.getDeltas()) {
+            boolean atEnd = delta.getOriginal().getPosition() + delta.getOriginal().size() >= onDiskWindow.size()
+                    || delta.getRevised().getPosition() + delta.getRevised().size() >= expectedWindow.size();
+            if (!truncated || !atEnd) {
+                patch.addDelta(delta);
+            }
+        }
+        if (patch.getDeltas().isEmpty()) {
+            patch = fullPatch;
+        }
+
+        List<String> diff = new ArrayList<>();
+        for (String diffLine :
+                DiffUtils.generateUnifiedDiff("on disk", "expected", onDiskWindow, patch, CONTEXT_LINES)) {
+            if (diff.size() == MAX_DIFF_LINES) {
+                truncated = true;
+                break;
+            }
+            diff.add(withOffset(diffLine, offset));
+        }
+        if (truncated) {
+            diff.add("... (further differences omitted)");
+        }
+        return String.join("\n", diff);
+    }
+
+    private static List<String> window(Deque<String> context, @Nullable String first, Iterator<String> rest) {
+        List<String> window = new ArrayList<>(context);
+        if (first != null) {
+            window.add(first);
+        }
+        while (window.size() < WINDOW_LINES && rest.hasNext()) {
+            window.add(rest.next());
+        }
+        return window;
+    }
+
+    /** Hunk headers count lines from the start of the window, rather than the start of the file. */
+    private static String withOffset(String diffLine, int offset) {
+        Matcher matcher = HUNK_HEADER.matcher(diffLine);
+        if (offset == 0 || !matcher.matches()) {
+            return diffLine;
+        }
+        return String.format(
+                "@@ -%d,%s +%d,%s @@",
+                Integer.parseInt(matcher.group(1)) + offset,
+                matcher.group(2),
+                Integer.parseInt(matcher.group(3)) + offset,
+                matcher.group(4));
+    }
+
+    /**
+     * Splits on {@code '\n'} only, like the expected contents, so a trailing newline or a {@code '\r'} is a
+     * difference rather than being silently ignored.
+     */
+    private static final class LineIterator implements Iterator<String> {
+        private final BufferedReader reader;
+        private final StringBuilder line = new StringBuilder();
+        private boolean done = false;
+
+        private LineIterator(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !done;
+        }
+
+        @Override
+        public String next() {
+            if (done) {
+                throw new NoSuchElementException();
+            }
+            try {
+                line.setLength(0);
+                int character;
+                while ((character = reader.read()) != -1) {
+                    if (character == '\n') {
+                        return line.toString();
+                    }
+                    line.append((char) character);
+                }
+                done = true;
+                return line.toString();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.tasks;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.palantir.baseline.plugins.ReferencedClassAnalyzer;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.FileType;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
+
+/**
+ * Records every class referenced by the compiled classes of a source set, so that {@link CheckUnusedDependenciesTask}
+ * and {@link CheckImplicitDependenciesTask} don't each have to analyze the same class files. The output is keyed by
+ * the content hash of the class files, so it can be re-used from the build cache.
+ *
+ * <p>The references of each individual class file are also persisted, so that after a small change only the added
+ * or modified class files need to be analyzed again.
+ */
+@CacheableTask
+public class ReferencedClassesTask extends DefaultTask {
+
+    private static final String REFERENCED_CLASSES = "referenced-classes.txt";
+    private static final String REFERENCES_BY_CLASS_FILE = "references-by-class-file.txt";
+
+    private final ConfigurableFileCollection sourceClasses;
+    private final DirectoryProperty outputDirectory;
+    private final Property<ReferencedClassAnalyzer> analyzer;
+
+    public ReferencedClassesTask() {
+        setDescription("Records all classes referenced by compiled classes");
+        sourceClasses = getProject().getObjects().fileCollection();
+        analyzer = getProject().getObjects().property(ReferencedClassAnalyzer.class);
+        analyzer.set(ReferencedClassAnalyzer.ASM);
+        outputDirectory = getProject().getObjects().directoryProperty();
+    }
+
+    @TaskAction
+    public final void collectReferencedClasses(InputChanges inputChanges) throws IOException {
+        File referencesByClassFile = outputDirectory.file(REFERENCES_BY_CLASS_FILE).get().getAsFile();
+        SortedMap<String, Set<String>> references = inputChanges.isIncremental()
+                ? readReferencesByClassFile(referencesByClassFile)
+                : new TreeMap<>();
+
+        ReferencedClassAnalyzer classAnalyzer = analyzer.get();
+        int analyzed = 0;
+        for (FileChange change : inputChanges.getFileChanges(sourceClasses)) {
+            if (change.getFileType() != FileType.FILE || !change.getFile().getName().endsWith(".class")) {
+                continue;
+            }
+            String classFile = classFileKey(change.getFile());
+            if (change.getChangeType() == ChangeType.REMOVED) {
+                references.remove(classFile);
+            } else {
+                references.put(
+                        classFile,
+                        classAnalyzer
+                                .referencedClasses(change.getFile())
+                                .collect(ImmutableSortedSet.toImmutableSortedSet(Comparator.naturalOrder())));
+                analyzed++;
+            }
+        }
+        getLogger()
+                .info(
+                        "Analyzed {} of {} class files (incremental: {})",
+                        analyzed,
+                        references.size(),
+                        inputChanges.isIncremental());
+
+        List<String> referencedClasses = references.values().stream()
+                .flatMap(Set::stream)
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList());
+        Files.createDirectories(outputDirectory.get().getAsFile().toPath());
+        writeReferencesByClassFile(referencesByClassFile, references);
+        Files.write(
+                outputDirectory.file(REFERENCED_CLASSES).get().getAsFile().toPath(),
+                referencedClasses,
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Keys each class file on its path relative to the project, which includes the class directory it's in, so that
+     * class files with the same name in different class directories don't collide. This also works before Gradle 6.2,
+     * which added {@link FileChange#getNormalizedPath()}.
+     */
+    private String classFileKey(File classFile) {
+        Path path = classFile.toPath().toAbsolutePath();
+        Path projectDir = getProject().getProjectDir().toPath().toAbsolutePath();
+        String key = path.startsWith(projectDir) ? projectDir.relativize(path).toString() : path.toString();
+        return key.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Registers the task which records the classes referenced by {@code sourceClasses}, for builds which still use the
+     * deprecated {@code setSourceClasses} of the exact-dependency check {@code task}. Setting the classes again
+     * reconfigures the same task.
+     */
+    static TaskProvider<ReferencedClassesTask> forDeprecatedSourceClasses(Task task, FileCollection sourceClasses) {
+        Project project = task.getProject();
+        String name = task.getName() + "ReferencedClasses";
+        if (!project.getTasks().getNames().contains(name)) {
+            project.getTasks().register(name, ReferencedClassesTask.class, referencedClasses -> {
+                referencedClasses.getAnalyzer().set(ReferencedClassAnalyzer.forProject(project));
+                referencedClasses
+                        .getOutputDirectory()
+                        .set(project.getLayout().getBuildDirectory().dir("baseline-exact-dependencies/" + name));
+            });
+        }
+        TaskProvider<ReferencedClassesTask> referencedClasses =
+                project.getTasks().named(name, ReferencedClassesTask.class);
+        referencedClasses.configure(referencedClassesTask -> referencedClassesTask.setSourceClasses(sourceClasses));
+        return referencedClasses;
+    }
+
+    /** Reads the classes recorded by this task. */
+    public static Set<String> readReferencedClasses(File referencedClassesFile) {
+        try (Stream<String> lines = Files.lines(referencedClassesFile.toPath(), StandardCharsets.UTF_8)) {
+            return lines.collect(ImmutableSet.toImmutableSet());
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read " + referencedClassesFile, e);
+        }
+    }
+
+    /** Each line is a class file, followed by a tab and the comma separated classes it references. */
+    private static SortedMap<String, Set<String>> readReferencesByClassFile(File file) throws IOException {
+        SortedMap<String, Set<String>> references = new TreeMap<>();
+        if (!file.exists()) {
+            return references;
+        }
+        try (Stream<String> lines = Files.lines(file.toPath(), StandardCharsets.UTF_8)) {
+            lines.forEach(line -> {
+                List<String> parts = Splitter.on('\t').limit(2).splitToList(line);
+                references.put(
+                        parts.get(0),
+                        parts.size() < 2
+                                ? ImmutableSet.of()
+                                : ImmutableSet.copyOf(
+                                        Splitter.on(',').omitEmptyStrings().split(parts.get(1))));
+            });
+        }
+        return references;
+    }
+
+    private static void writeReferencesByClassFile(File file, Map<String, Set<String>> references)
+            throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Set<String>> entry : references.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(String.join(",", entry.getValue()));
+                writer.newLine();
+            }
+        }
+    }
+
+    @Incremental
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public final FileCollection getSourceClasses() {
+        return sourceClasses;
+    }
+
+    public final void setSourceClasses(FileCollection newClasses) {
+        this.sourceClasses.setFrom(newClasses);
+    }
+
+    /** How class files are analyzed, which may slightly change the result so is part of the cache key. */
+    @Input
+    public final Property<ReferencedClassAnalyzer> getAnalyzer() {
+        return analyzer;
+    }
+
+    @OutputDirectory
+    public final DirectoryProperty getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /** The sorted set of classes referenced by any of the source classes, one per line. */
+    @Internal
+    public final Provider<RegularFile> getReferencedClassesFile() {
+        return outputDirectory.file(REFERENCED_CLASSES);
+    }
+}
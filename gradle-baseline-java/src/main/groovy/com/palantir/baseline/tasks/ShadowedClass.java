@@ -0,0 +1,102 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline.tasks;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import java.util.List;
+import java.util.function.ToLongFunction;
+import org.gradle.api.artifacts.ModuleVersionIdentifier;
+
+/**
+ * A class with non-identical implementations in several jars, and which of them is actually loaded: the JVM loads the
+ * first one on the classpath, which shadows all the others. Code compiled against a shadowed variant may fail at
+ * runtime, for example with a {@link NoSuchMethodError}, and the more the variants differ the more likely that is.
+ */
+public final class ShadowedClass {
+    private final String className;
+    private final ImmutableList<Variant> variants;
+
+    ShadowedClass(String className, List<Variant> variants) {
+        Preconditions.checkArgument(variants.size() > 1, "A shadowed class has more than one variant");
+        this.className = className;
+        this.variants = ImmutableList.copyOf(variants);
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /** The variant in each jar containing the class, in classpath order. */
+    public ImmutableList<Variant> getVariants() {
+        return variants;
+    }
+
+    /** The variant that is loaded, because its jar is first on the classpath. */
+    public Variant getWinner() {
+        return variants.get(0);
+    }
+
+    /** The difference in size between the largest and smallest variant, in bytes. */
+    public long getSizeDelta() {
+        return delta(Variant::getSize);
+    }
+
+    /** The difference in the number of methods (including constructors) between any two variants. */
+    public long getMethodCountDelta() {
+        return delta(Variant::getMethodCount);
+    }
+
+    private long delta(ToLongFunction<Variant> property) {
+        long max = variants.stream().mapToLong(property).max().getAsLong();
+        long min = variants.stream().mapToLong(property).min().getAsLong();
+        return max - min;
+    }
+
+    public static final class Variant {
+        private final ModuleVersionIdentifier jar;
+        private final HashCode hash;
+        private final long size;
+        private final int methodCount;
+
+        Variant(ModuleVersionIdentifier jar, HashCode hash, long size, int methodCount) {
+            this.jar = jar;
+            this.hash = hash;
+            this.size = size;
+            this.methodCount = methodCount;
+        }
+
+        public ModuleVersionIdentifier getJar() {
+            return jar;
+        }
+
+        /** The SHA-256 of the class file. */
+        public HashCode getHash() {
+            return hash;
+        }
+
+        /** The size of the class file in bytes. */
+        public long getSize() {
+            return size;
+        }
+
+        public int getMethodCount() {
+            return methodCount;
+        }
+    }
+}
@@ -16,10 +16,20 @@
 
 package com.palantir.baseline.util;
 
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 import org.gradle.util.GFileUtils;
 
 public final class GitUtils {
@@ -38,5 +48,47 @@ public final class GitUtils {
         }
     }
 
+    /**
+     * Files under {@code directory} which differ from {@code baseRevision} in the working tree, whether staged or not,
+     * and files which git doesn't know about yet. Deleted files are included, even though they no longer exist.
+     * Returns empty if {@code directory} isn't part of a git repository or git can't be run.
+     */
+    public static Optional<Set<File>> changedFiles(File directory, String baseRevision) {
+        Optional<List<String>> changed = git(directory, "diff", "--name-only", "--relative", "-z", baseRevision);
+        Optional<List<String>> untracked = git(directory, "ls-files", "--others", "--exclude-standard", "-z");
+        if (!changed.isPresent() || !untracked.isPresent()) {
+            return Optional.empty();
+        }
+        return Optional.of(Stream.concat(changed.get().stream(), untracked.get().stream())
+                .map(path -> new File(directory, path))
+                .collect(ImmutableSet.toImmutableSet()));
+    }
+
+    /** Runs a git command whose output is a list of NUL-terminated paths relative to {@code directory}. */
+    private static Optional<List<String>> git(File directory, String... args) {
+        try {
+            Process process = new ProcessBuilder(ImmutableList.<String>builder()
+                            .add("git")
+                            .add(args)
+                            .build())
+                    .directory(directory)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            String output;
+            try (InputStream input = process.getInputStream()) {
+                output = new String(ByteStreams.toByteArray(input), StandardCharsets.UTF_8);
+            }
+            if (process.waitFor() != 0) {
+                return Optional.empty();
+            }
+            return Optional.of(Splitter.on('\0').omitEmptyStrings().splitToList(output));
+        } catch (IOException e) {
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+    }
+
     private GitUtils() {}
 }
@@ -0,0 +1,87 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline
+
+import com.palantir.baseline.tasks.ApplyErrorPronePatchesTask
+import org.gradle.api.GradleException
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class ApplyErrorPronePatchesTaskTest extends Specification {
+
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+
+    def 'applies the diff of each file relative to the patch'() {
+        given:
+        File a = file('src/A.java', 'class A {\n  int x;\n  int y;\n}\n')
+        File b = file('src/B.java', 'class B {\n  int x;\n}\n')
+        File patch = file('build/patches/error-prone.patch', '''\
+            --- ../../src/A.java
+            +++ ../../src/A.java
+            @@ -1,4 +1,4 @@
+             class A {
+            -  int x;
+            +  long x;
+               int y;
+             }
+            --- ../../src/B.java
+            +++ ../../src/B.java
+            @@ -1,3 +1,3 @@
+             class B {
+            -  int x;
+            +  long x;
+             }
+            '''.stripIndent())
+
+        when:
+        int patched = ApplyErrorPronePatchesTask.applyPatch(patch.toPath())
+
+        then:
+        patched == 2
+        a.text == 'class A {\n  long x;\n  int y;\n}\n'
+        b.text == 'class B {\n  long x;\n}\n'
+    }
+
+    def 'fails when a file no longer matches its diff'() {
+        given:
+        file('src/A.java', 'class A {\n  short x;\n}\n')
+        File patch = file('build/patches/error-prone.patch', '''\
+            --- ../../src/A.java
+            +++ ../../src/A.java
+            @@ -1,3 +1,3 @@
+             class A {
+            -  int x;
+            +  long x;
+             }
+            '''.stripIndent())
+
+        when:
+        ApplyErrorPronePatchesTask.applyPatch(patch.toPath())
+
+        then:
+        thrown(GradleException)
+    }
+
+    private File file(String path, String contents) {
+        File file = new File(folder.getRoot(), path)
+        file.getParentFile().mkdirs()
+        file.text = contents
+        return file
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.palantir.baseline
 
+import groovy.json.JsonSlurper
 import java.nio.file.Files
 import java.util.stream.Stream
 import org.gradle.testkit.runner.BuildResult
@@ -65,6 +66,12 @@ class BaselineClassUniquenessPluginIntegrationTest extends AbstractPluginTest {
             GFileUtils.writeFile(lockfile.text, expected)
         }
         lockfile.text == expected.text
+
+        File reportFile = new File(projectDir, 'build/reports/baseline-class-uniqueness/shadowing.json')
+        def report = new JsonSlurper().parse(reportFile)
+        def arrayElResolver = report.runtimeClasspath.find { it.className == 'javax.el.ArrayELResolver' }
+        arrayElResolver.winner == 'javax.el:javax.el-api:3.0.0'
+        arrayElResolver.variants*.jar == ['javax.el:javax.el-api:3.0.0', 'javax.servlet.jsp:jsp-api:2.1']
     }
 
     def 'detect duplicates in two external jars in non-standard configuration'() {
@@ -117,6 +124,52 @@ class BaselineClassUniquenessPluginIntegrationTest extends AbstractPluginTest {
         result.task(':checkClassUniqueness').outcome == TaskOutcome.UP_TO_DATE
     }
 
+    def 'task should re-run when a jar is added and load unchanged results from the build cache'() {
+        when:
+        buildFile << standardBuildFile
+        with('checkClassUniqueness', '--build-cache').build()
+        buildFile << """
+        dependencies {
+            compile 'junit:junit:4.12'
+        }
+        """.stripIndent()
+
+        then:
+        BuildResult changed = with('checkClassUniqueness', '--build-cache').build()
+        changed.task(':checkClassUniqueness').outcome == TaskOutcome.SUCCESS
+
+        with('clean').build()
+        BuildResult fromCache = with('checkClassUniqueness', '--build-cache').build()
+        fromCache.task(':checkClassUniqueness').outcome == TaskOutcome.FROM_CACHE
+    }
+
+    def 'lock file is checked as an input, and always rewritten by --write-locks'() {
+        File lockfile = new File(projectDir, 'baseline-class-uniqueness.lock')
+
+        when:
+        buildFile << standardBuildFile
+        buildFile << """
+        dependencies {
+            compile group: 'javax.el', name: 'javax.el-api', version: '3.0.0'
+            compile group: 'javax.servlet.jsp', name: 'jsp-api', version: '2.1'
+        }
+        """.stripIndent()
+        with('checkClassUniqueness', '--write-locks', '--build-cache').build()
+        String locked = lockfile.text
+
+        then:
+        with('checkClassUniqueness', '--build-cache').build()
+                .task(':checkClassUniqueness').outcome == TaskOutcome.SUCCESS
+
+        lockfile.text = locked + '  - com.example.Stale\n'
+        with('checkClassUniqueness', '--build-cache').buildAndFail().output.contains('is out of date')
+
+        with('clean').build()
+        with('checkClassUniqueness', '--write-locks', '--build-cache').build()
+                .task(':checkClassUniqueness').outcome == TaskOutcome.SUCCESS
+        lockfile.text == locked
+    }
+
     def 'passes when no duplicates are present'() {
         when:
         buildFile << standardBuildFile
@@ -0,0 +1,48 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline
+
+import com.palantir.baseline.plugins.BaselineClassUniquenessPlugin
+import com.palantir.baseline.tasks.CheckClassUniquenessLockTask
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class BaselineClassUniquenessPluginTest extends Specification {
+
+    @Unroll
+    def 'setting the zip checksums property to "#value" uses zip checksums: #expected'() {
+        given:
+        Project project = ProjectBuilder.builder().build()
+        project.ext.'com.palantir.baseline-class-uniqueness.use-zip-checksums' = value
+
+        when:
+        project.plugins.apply(BaselineClassUniquenessPlugin)
+
+        then:
+        project.tasks.named('checkClassUniqueness', CheckClassUniquenessLockTask).get().useZipChecksums.get() == expected
+
+        where:
+        value   | expected
+        ''      | true
+        'true'  | true
+        true    | true
+        'false' | false
+        false   | false
+    }
+}
@@ -116,6 +116,195 @@ class BaselineErrorProneIntegrationTest extends AbstractPluginTest {
         result.task(":compileJava").outcome == TaskOutcome.SUCCESS
     }
 
+    def 'checks for libraries missing from the compile classpath are turned off'() {
+        when:
+        buildFile << standardBuildFile
+        // Slf4jLevelCheck would flag this code if org.slf4j:slf4j-api provided the logger
+        file('src/main/java/org/slf4j/Logger.java') << '''
+        package org.slf4j;
+        public interface Logger {
+            boolean isInfoEnabled();
+            void debug(String message);
+        }
+        '''.stripIndent()
+        file('src/main/java/test/Test.java') << '''
+        package test;
+        import org.slf4j.Logger;
+        public class Test {
+            void test(Logger log) {
+                if (log.isInfoEnabled()) {
+                    log.debug("hello");
+                }
+            }
+        }
+        '''.stripIndent()
+
+        then:
+        BuildResult result = with('compileJava').build()
+        result.task(":compileJava").outcome == TaskOutcome.SUCCESS
+        !result.output.contains("[Slf4jLevelCheck]")
+    }
+
+    def 'checks for libraries on the compile classpath still run'() {
+        when:
+        buildFile << standardBuildFile
+        buildFile << """
+            dependencies {
+                implementation 'org.slf4j:slf4j-api:1.7.25'
+            }
+        """.stripIndent()
+        file('src/main/java/test/Test.java') << '''
+        package test;
+        import org.slf4j.Logger;
+        import org.slf4j.LoggerFactory;
+        public class Test {
+            private static final Logger log = LoggerFactory.getLogger(Test.class);
+            void test() {
+                if (log.isInfoEnabled()) {
+                    log.debug("hello");
+                }
+            }
+        }
+        '''.stripIndent()
+
+        then:
+        BuildResult result = with('compileJava', '--info').buildAndFail()
+        result.output.contains("[Slf4jLevelCheck]")
+        !result.output.contains("Disabling check Slf4jLevelCheck")
+    }
+
+    def 'compileJava records how long each check takes when profiling'() {
+        when:
+        buildFile << standardBuildFile
+        file('src/main/java/test/Test.java') << validJavaFile
+
+        then:
+        BuildResult result = with('compileJava', '-Pcom.palantir.baseline-error-prone.profile').build()
+        result.task(":compileJava").outcome == TaskOutcome.SUCCESS
+        List<String> taskProfile = file('build/reports/error-prone-profile/compileJava.tsv').readLines()
+        taskProfile.any { it.startsWith('StrictUnusedVariable\t') }
+        file('build/reports/error-prone-profile.tsv').readLines()*.split('\t')*.getAt(0) as Set ==
+                taskProfile*.split('\t')*.getAt(0) as Set
+
+        BuildResult again = with('compileJava', '-Pcom.palantir.baseline-error-prone.profile').build()
+        again.task(":compileJava").outcome == TaskOutcome.SUCCESS
+    }
+
+    def 'compileJava only checks files changed in git when changed-files-only is set'() {
+        when:
+        buildFile << standardBuildFile
+        "git init".execute(Collections.emptyList(), projectDir).waitFor()
+        "git config user.name Foo".execute(Collections.emptyList(), projectDir).waitFor()
+        "git config user.email foo@bar.com".execute(Collections.emptyList(), projectDir).waitFor()
+        file('src/main/java/test/Test.java') << invalidJavaFile
+        "git add .".execute(Collections.emptyList(), projectDir).waitFor()
+        "git commit -m Commit".execute(Collections.emptyList(), projectDir).waitFor()
+        Map<String, String> environment = System.getenv().findAll { it.key != 'CI' }
+
+        then:
+        BuildResult unchanged = with('compileJava', '-Pcom.palantir.baseline-error-prone.changed-files-only')
+                .withEnvironment(environment)
+                .build()
+        unchanged.task(":compileJava").outcome == TaskOutcome.SUCCESS
+
+        file('src/main/java/test/Other.java') << invalidJavaFile.replace('class Test', 'class Other')
+        BuildResult changed = with('compileJava', '-Pcom.palantir.baseline-error-prone.changed-files-only')
+                .withEnvironment(environment)
+                .buildAndFail()
+        changed.output.contains("Other.java")
+        changed.output.contains("[ArrayEquals] Reference equality used to compare arrays")
+        !changed.output.contains("Test.java")
+    }
+
+    def 'errorProneCheckMain finds errors instead of compileJava when using separate tasks'() {
+        when:
+        buildFile << standardBuildFile
+        file('src/main/java/test/Test.java') << invalidJavaFile
+
+        then:
+        BuildResult compiled = with('compileJava', '-Pcom.palantir.baseline-error-prone.separate-tasks').build()
+        compiled.task(":compileJava").outcome == TaskOutcome.SUCCESS
+        compiled.task(":errorProneCheckMain") == null
+
+        BuildResult checked = with('check', '-Pcom.palantir.baseline-error-prone.separate-tasks').buildAndFail()
+        checked.task(":errorProneCheckMain").outcome == TaskOutcome.FAILED
+        checked.output.contains("[ArrayEquals] Reference equality used to compare arrays")
+    }
+
+    def 'errorProneCheckMain uses the compiler arguments of compileJava'() {
+        when:
+        buildFile << standardBuildFile
+        buildFile << '''
+            compileJava {
+                options.compilerArgs += ['-Xlint:deprecation']
+                options.compilerArgumentProviders.add(new CommandLineArgumentProvider() {
+                    Iterable<String> asArguments() { ['-Werror'] }
+                })
+            }
+        '''.stripIndent()
+        file('src/main/java/test/Old.java') << '''
+        package test;
+        public class Old { @Deprecated public static void old() {} }
+        '''.stripIndent()
+        file('src/main/java/test/Test.java') << '''
+        package test;
+        public class Test { void test() { Old.old(); } }
+        '''.stripIndent()
+
+        then:
+        BuildResult result = with('errorProneCheckMain', '-Pcom.palantir.baseline-error-prone.separate-tasks')
+                .buildAndFail()
+        result.task(":errorProneCheckMain").outcome == TaskOutcome.FAILED
+        result.output.contains("warnings found and -Werror specified")
+    }
+
+    def 'errorProneCheckMain uses compileJava providers of a class that is also added to every task'() {
+        when:
+        buildFile << standardBuildFile
+        buildFile << '''
+            class Arguments implements CommandLineArgumentProvider {
+                List<String> arguments
+                Iterable<String> asArguments() { arguments }
+            }
+            tasks.withType(JavaCompile).configureEach {
+                options.compilerArgumentProviders.add(new Arguments(arguments: ['-Xlint:deprecation']))
+            }
+            compileJava {
+                options.compilerArgumentProviders.add(new Arguments(arguments: ['-Werror']))
+            }
+        '''.stripIndent()
+        file('src/main/java/test/Old.java') << '''
+        package test;
+        public class Old { @Deprecated public static void old() {} }
+        '''.stripIndent()
+        file('src/main/java/test/Test.java') << '''
+        package test;
+        public class Test { void test() { Old.old(); } }
+        '''.stripIndent()
+
+        then:
+        BuildResult result = with('errorProneCheckMain', '-Pcom.palantir.baseline-error-prone.separate-tasks')
+                .buildAndFail()
+        result.task(":errorProneCheckMain").outcome == TaskOutcome.FAILED
+        result.output.contains("warnings found and -Werror specified")
+    }
+
+    def 'errorProneCheckMain is loaded from the build cache'() {
+        when:
+        buildFile << standardBuildFile
+        file('src/main/java/test/Test.java') << validJavaFile
+
+        then:
+        BuildResult result = with(
+                'errorProneCheckMain', '--build-cache', '-Pcom.palantir.baseline-error-prone.separate-tasks').build()
+        result.task(":errorProneCheckMain").outcome == TaskOutcome.SUCCESS
+
+        with('clean').build()
+        BuildResult cached = with(
+                'errorProneCheckMain', '--build-cache', '-Pcom.palantir.baseline-error-prone.separate-tasks').build()
+        cached.task(":errorProneCheckMain").outcome == TaskOutcome.FROM_CACHE
+    }
+
     def 'compileJava applies patches when error-prone finds errors'() {
         when:
         buildFile << standardBuildFile
@@ -141,6 +330,34 @@ class BaselineErrorProneIntegrationTest extends AbstractPluginTest {
         '''.stripIndent()
     }
 
+    def 'errorProneApplyPatches applies patches written out of place'() {
+        when:
+        buildFile << standardBuildFile
+        file('src/main/java/test/Test.java') << invalidJavaFile
+
+        then:
+        BuildResult result = with(
+                'compileJava', '-PerrorProneApply', '-Pcom.palantir.baseline-error-prone.patch-out-of-place').build()
+        result.task(":compileJava").outcome == TaskOutcome.SUCCESS
+        result.task(":errorProneApplyPatches").outcome == TaskOutcome.SUCCESS
+        file('build/error-prone-patches/compileJava/error-prone.patch').exists()
+        file('src/main/java/test/Test.java').text == '''
+        package test;
+        import java.util.Arrays;
+        import java.util.Optional;
+        public class Test {
+            void test() {
+                int[] a = {1, 2, 3};
+                int[] b = {1, 2, 3};
+                if (Arrays.equals(a, b)) {
+                  System.out.println("arrays are equal!");
+                  Optional.of("hello").orElseGet(() -> System.getProperty("world"));
+                }
+            }
+        }
+        '''.stripIndent()
+    }
+
     def 'compileJava applies patches when errorProneApply contains specific checks'() {
         when:
         buildFile << standardBuildFile
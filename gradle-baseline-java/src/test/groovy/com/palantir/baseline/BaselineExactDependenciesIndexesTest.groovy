@@ -0,0 +1,180 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline
+
+import com.palantir.baseline.plugins.BaselineExactDependencies
+import com.palantir.baseline.plugins.DependencyUsageMatrix
+import com.palantir.baseline.plugins.JarClassIndexCache
+import org.gradle.api.Project
+import org.gradle.api.artifacts.ResolvedArtifact
+import org.gradle.api.artifacts.ResolvedDependency
+import org.gradle.testfixtures.ProjectBuilder
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class BaselineExactDependenciesIndexesTest extends Specification {
+
+    private static final int JARS = 8
+    private static final int CLASSES_PER_JAR = 5
+
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+
+    private JarClassIndexCache noCache
+    private Set<ResolvedDependency> classpath
+
+    def setup() {
+        Project project = ProjectBuilder.builder().withProjectDir(folder.newFolder('project')).build()
+        project.ext.'com.palantir.baseline-exact-dependencies.disable-persistent-index' = true
+        noCache = JarClassIndexCache.forProject(project)
+        classpath = syntheticClasspath()
+    }
+
+    def 'parallel scan matches a sequential scan'() {
+        when:
+        BaselineExactDependencies.Indexes sequential = new BaselineExactDependencies.Indexes(1)
+        sequential.populateIndexes(classpath, noCache)
+        BaselineExactDependencies.Indexes parallel = new BaselineExactDependencies.Indexes(4)
+        parallel.populateIndexes(classpath, noCache)
+
+        then:
+        classpath.each { ResolvedDependency dependency ->
+            ResolvedArtifact artifact = dependency.moduleArtifacts.first()
+            assert parallel.classesFromArtifact(artifact).toArray() as Set ==
+                    sequential.classesFromArtifact(artifact).toArray() as Set
+            assert parallel.artifactsFromDependency(artifact) == dependency
+        }
+        parallel.classToDependency("com.example.jar5.Class3").get().file.name == "jar5.jar"
+    }
+
+    def 'already indexed artifacts are not scanned again'() {
+        given:
+        BaselineExactDependencies.Indexes indexes = new BaselineExactDependencies.Indexes(4)
+        indexes.populateIndexes(classpath, noCache)
+
+        when:
+        // scanning any of these jars again would now fail
+        classpath*.moduleArtifacts.flatten()*.file*.delete()
+        indexes.populateIndexes(classpath, noCache)
+
+        then:
+        noExceptionThrown()
+        indexes.classToDependency("com.example.jar0.Class0").isPresent()
+    }
+
+    def 'classes contained in several artifacts are listed for each of them'() {
+        given:
+        ResolvedDependency first = dependency('first', ['com/example/Shared.class', 'com/example/Ünïcode.class'])
+        ResolvedDependency second = dependency('second', ['com/example/Shared.class', 'com/example/Other.class'])
+        BaselineExactDependencies.Indexes indexes = new BaselineExactDependencies.Indexes(1)
+
+        when:
+        indexes.populateIndexes([first] as Set, noCache)
+        indexes.populateIndexes([second] as Set, noCache)
+
+        then:
+        indexes.classesFromArtifact(first.moduleArtifacts.first()).toArray() as Set ==
+                ['com.example.Shared', 'com.example.Ünïcode'] as Set
+        indexes.classesFromArtifact(second.moduleArtifacts.first()).toArray() as Set ==
+                ['com.example.Shared', 'com.example.Other'] as Set
+        indexes.classToDependency('com.example.Ünïcode').get().file.name == 'first.jar'
+        indexes.classToDependency('com.example.Other').get().file.name == 'second.jar'
+        indexes.classToDependency('com.example.Shared').isPresent()
+        !indexes.classToDependency('com.example.Missing').isPresent()
+    }
+
+    def 'evicts the least recently used artifacts that are not leased'() {
+        given:
+        ResolvedDependency first = dependency('first', [
+                'com/example/First.class',
+                'com/example/First$1.class',
+                'com/example/First$2.class',
+                'com/example/Shared.class'])
+        ResolvedDependency second = dependency('second', ['com/example/Second.class', 'com/example/Shared.class'])
+        ResolvedDependency third = dependency('third', ['com/example/Third.class'])
+        ResolvedDependency fourth = dependency('fourth', ['com/example/Fourth.class', 'com/example/Shared.class'])
+        BaselineExactDependencies.Indexes indexes = new BaselineExactDependencies.Indexes(1, 8)
+
+        when:
+        indexes.populateIndexes([first] as Set, noCache).close()
+        BaselineExactDependencies.Indexes.Lease secondLease = indexes.populateIndexes([second] as Set, noCache)
+        indexes.populateIndexes([third] as Set, noCache).close()
+        indexes.populateIndexes([fourth] as Set, noCache).close()
+
+        then: 'first is evicted, but second is still leased'
+        !indexes.classToDependency('com.example.First').isPresent()
+        indexes.classToDependency('com.example.Second').get().file.name == 'second.jar'
+        indexes.classToDependency('com.example.Third').get().file.name == 'third.jar'
+        indexes.classToDependency('com.example.Fourth').get().file.name == 'fourth.jar'
+        indexes.classToDependency('com.example.Shared').get().file.name == 'fourth.jar'
+        indexes.classesFromArtifact(second.moduleArtifacts.first()).toArray() as Set ==
+                ['com.example.Second', 'com.example.Shared'] as Set
+
+        when:
+        secondLease.close()
+        indexes.populateIndexes([first] as Set, noCache).close()
+
+        then: 'second is evicted once released, and shared classes are owned by the remaining artifacts'
+        !indexes.classToDependency('com.example.Second').isPresent()
+        indexes.classToDependency('com.example.First').get().file.name == 'first.jar'
+        indexes.classToDependency('com.example.Shared').get().file.name == 'first.jar'
+    }
+
+    def 'usage matrix answers for each source set'() {
+        given:
+        ResolvedDependency first = dependency('first', ['com/example/First.class'])
+        ResolvedDependency second = dependency('second', ['com/example/Second.class'])
+        ResolvedDependency third = dependency('third', ['com/example/Third.class'])
+        BaselineExactDependencies.Indexes indexes = new BaselineExactDependencies.Indexes(1)
+        indexes.populateIndexes([first, second, third] as Set, noCache)
+
+        when:
+        DependencyUsageMatrix matrix = DependencyUsageMatrix.compute(indexes, [
+                main: ['com.example.First', 'java.lang.String'] as Set,
+                test: ['com.example.First', 'com.example.Second'] as Set,
+                integrationTest: [] as Set])
+
+        then:
+        matrix.usedArtifacts('main')*.file*.name as Set == ['first.jar'] as Set
+        matrix.usedArtifacts('test')*.file*.name as Set == ['first.jar', 'second.jar'] as Set
+        matrix.usedArtifacts('integrationTest').isEmpty()
+    }
+
+    private Set<ResolvedDependency> syntheticClasspath() {
+        return (0..<JARS).collect { int jarIndex ->
+            return dependency("jar${jarIndex}", (0..<CLASSES_PER_JAR).collect { int classIndex ->
+                "com/example/jar${jarIndex}/Class${classIndex}.class".toString()
+            })
+        } as Set
+    }
+
+    private ResolvedDependency dependency(String name, List<String> entries) {
+        File jar = TestJars.jar(new File(folder.root, "${name}.jar"), entries.collectEntries { String entry ->
+            [(entry): new byte[64]]
+        })
+
+        ResolvedArtifact artifact = Stub(ResolvedArtifact) {
+            getFile() >> jar
+            getExtension() >> 'jar'
+        }
+        return Stub(ResolvedDependency) {
+            getModuleArtifacts() >> ([artifact] as Set)
+            getAllModuleArtifacts() >> ([artifact] as Set)
+        }
+    }
+}
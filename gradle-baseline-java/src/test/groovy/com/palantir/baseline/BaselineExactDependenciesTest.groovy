@@ -93,6 +93,33 @@ class BaselineExactDependenciesTest extends AbstractPluginTest {
         result.output.contains("Found 1 dependencies unused during compilation")
     }
 
+    def 'deprecated sourceClasses can be set more than once'() {
+        when:
+        buildFile << standardBuildFile
+        buildFile << """
+        repositories {
+            mavenCentral()
+        }
+        dependencies {
+            compile 'com.google.guava:guava:27.0.1-jre'
+        }
+        task checkUnusedDependenciesLegacy(type: com.palantir.baseline.tasks.CheckUnusedDependenciesTask) {
+            indexes.set(tasks.named('checkUnusedDependenciesMain').flatMap { it.indexes })
+            dependenciesConfiguration(configurations.compileClasspath)
+            sourceClasses = files()
+            sourceClasses = sourceSets.main.output.classesDirs
+            dependsOn classes
+        }
+        """
+        file('src/main/java/pkg/Foo.java') << minimalJavaFile
+
+        then:
+        BuildResult result = with('checkUnusedDependenciesLegacy', '--stacktrace').buildAndFail()
+        result.task(':checkUnusedDependenciesLegacyReferencedClasses').getOutcome() == TaskOutcome.SUCCESS
+        result.task(':checkUnusedDependenciesLegacy').getOutcome() == TaskOutcome.FAILED
+        result.output.contains("Found 1 dependencies unused during compilation")
+    }
+
     def 'checkUnusedDependencies passes when annotationProcessor or compileOnly classes are not referenced'() {
         when:
         buildFile << standardBuildFile
@@ -242,6 +269,76 @@ class BaselineExactDependenciesTest extends AbstractPluginTest {
         result.task(':sub-project-no-deps:checkUnusedDependencies').outcome == TaskOutcome.UP_TO_DATE
     }
 
+    def 'checkImplicitDependencies results can be up to date and loaded from the build cache'() {
+        when:
+        setupMultiProject()
+        with(':sub-project-with-deps:checkImplicitDependencies', '--build-cache').build()
+
+        then:
+        BuildResult upToDate = with(':sub-project-with-deps:checkImplicitDependencies', '--build-cache').build()
+        upToDate.task(':sub-project-with-deps:checkImplicitDependenciesMain').outcome == TaskOutcome.UP_TO_DATE
+
+        with('clean').build()
+        BuildResult fromCache = with(':sub-project-with-deps:checkImplicitDependencies', '--build-cache').build()
+        fromCache.task(':sub-project-with-deps:checkImplicitDependenciesMain').outcome == TaskOutcome.FROM_CACHE
+        new File(projectDir, 'sub-project-with-deps/build/baseline-exact-dependencies/checkImplicitDependenciesMain')
+                .readLines() == ["project(':sub-project-no-deps')"]
+    }
+
+    def 'referenced classes are collected once for both checks'() {
+        when:
+        setupMultiProject()
+
+        then:
+        BuildResult result = with(':sub-project-with-deps:checkUnusedDependencies', ':sub-project-with-deps:checkImplicitDependencies').build()
+        result.task(':sub-project-with-deps:collectReferencedClassesMain').outcome == TaskOutcome.SUCCESS
+        new File(projectDir, 'sub-project-with-deps/build/baseline-exact-dependencies/main/referenced-classes.txt')
+                .readLines().contains('com.p1.TestClassNoDeps')
+    }
+
+    def 'referenced classes are only re-analyzed for changed class files'() {
+        when:
+        setupMultiProject()
+        with(':sub-project-no-deps:checkImplicitDependencies').build()
+        new File(projectDir, 'sub-project-no-deps/src/main/java/com/p1/TestClassNoDeps2.java').text =
+                "package com.p1; public class TestClassNoDeps2 { java.util.List<String> list; }"
+
+        then:
+        BuildResult result = with(':sub-project-no-deps:checkImplicitDependencies', '--info').build()
+        result.task(':sub-project-no-deps:collectReferencedClassesMain').outcome == TaskOutcome.SUCCESS
+        result.output.contains('Analyzed 1 of 2 class files (incremental: true)')
+        new File(projectDir, 'sub-project-no-deps/build/baseline-exact-dependencies/main/referenced-classes.txt')
+                .readLines().contains('java.util.List')
+    }
+
+    def 'referenced classes are recorded separately for class files with the same name in different directories'() {
+        when:
+        buildFile << standardBuildFile
+        buildFile << """
+        sourceSets {
+            other
+        }
+        tasks.named('collectReferencedClassesMain').configure {
+            setSourceClasses(sourceSets.main.output.classesDirs + sourceSets.other.output.classesDirs)
+        }
+        """
+        file('src/main/java/pkg/Foo.java') << 'package pkg; public class Foo { java.util.Set<String> set; }'
+        file('src/other/java/pkg/Foo.java') << 'package pkg; public class Foo { java.util.List<String> list; }'
+        File referencedClasses = new File(projectDir, 'build/baseline-exact-dependencies/main/referenced-classes.txt')
+
+        then:
+        with('collectReferencedClassesMain').build()
+        referencedClasses.readLines().containsAll(['java.util.Set', 'java.util.List'])
+
+        when:
+        new File(projectDir, 'src/other/java/pkg/Foo.java').delete()
+
+        then:
+        with('collectReferencedClassesMain').build()
+        referencedClasses.readLines().contains('java.util.Set')
+        !referencedClasses.readLines().contains('java.util.List')
+    }
+
     def 'checkUnusedDependencies fails when a redundant project dep is present'() {
         when:
         setupMultiProject()
@@ -252,6 +349,35 @@ class BaselineExactDependenciesTest extends AbstractPluginTest {
         result.output.contains "project(':sub-project-no-deps')"
     }
 
+    def 'usage matrix mode checks all source sets of a project in one task'() {
+        when:
+        setupMultiProject()
+
+        then:
+        BuildResult result = with(':checkUnusedDependencies', '-Pcom.palantir.baseline-exact-dependencies.usage-matrix')
+                .buildAndFail()
+        result.task(':checkDependencyUsage').getOutcome() == TaskOutcome.FAILED
+        result.task(':checkUnusedDependenciesMain') == null
+        result.task(':checkImplicitDependenciesMain') == null
+        result.output.contains "project(':sub-project-with-deps') (sub-project-with-deps.jar (project :sub-project-with-deps))"
+        result.output.contains "Found 1 implicit dependencies"
+
+        with(':sub-project-with-deps:checkUnusedDependencies', ':sub-project-with-deps:checkImplicitDependencies',
+                '-Pcom.palantir.baseline-exact-dependencies.usage-matrix').build()
+    }
+
+    def 'per source set checks only collect the classes of their own source set in usage matrix mode'() {
+        when:
+        setupMultiProject()
+
+        then:
+        BuildResult result = with(':sub-project-with-deps:checkUnusedDependenciesMain',
+                '-Pcom.palantir.baseline-exact-dependencies.usage-matrix').build()
+        result.task(':sub-project-with-deps:collectReferencedClassesMain').getOutcome() == TaskOutcome.SUCCESS
+        result.task(':sub-project-with-deps:collectReferencedClassesTest') == null
+        result.task(':sub-project-with-deps:checkDependencyUsage') == null
+    }
+
     def 'plugin does not cause GCV checkUnusedConstraints to fail'() {
         setupMultiProject()
         buildFile << """
@@ -0,0 +1,63 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline
+
+import com.palantir.baseline.plugins.ClassFileNames
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class ClassFileNamesTest extends Specification {
+
+    @Unroll
+    def 'converts #entryName to #className'() {
+        expect:
+        ClassFileNames.toClassName(entryName) == className
+        ClassFileNames.release(entryName) == release
+
+        where:
+        entryName                                      | className                    | release
+        'com/foo/Bar.class'                            | 'com.foo.Bar'                | 0
+        'Bar.class'                                    | 'Bar'                        | 0
+        'com/foo/Bar$Inner.class'                      | 'com.foo.Bar$Inner'          | 0
+        'com/foo/Bar$1.class'                          | 'com.foo.Bar$1'              | 0
+        'com/myclass/Xclass.class'                     | 'com.myclass.Xclass'         | 0
+        'com/foo/Bar.class.class'                      | 'com.foo.Bar.class'          | 0
+        'com/foo/package-info.class'                   | 'com.foo.package-info'       | 0
+        'module-info.class'                            | 'module-info'                | 0
+        'META-INF/versions/9/com/foo/Bar.class'        | 'com.foo.Bar'                | 9
+        'META-INF/versions/11/com/foo/Bar$Inner.class' | 'com.foo.Bar$Inner'          | 11
+        'META-INF/versions/9/module-info.class'        | 'module-info'                | 9
+        'META-INF/versions/9/Bar.class'                | 'Bar'                        | 9
+        'META-INF/versions/nine/Bar.class'             | 'META-INF.versions.nine.Bar' | 0
+        'META-INF/versions//Bar.class'                 | 'META-INF.versions..Bar'     | 0
+        'com/ünïcödé/Bar.class'                        | 'com.ünïcödé.Bar'            | 0
+        'com/foo/'                                     | null                         | 0
+        'com/foo.class/'                               | null                         | 0
+        'com/foo/.class'                               | null                         | 0
+        '.class'                                       | null                         | 0
+        'META-INF/MANIFEST.MF'                         | null                         | 0
+        'META-INF/versions/9/com/foo/bar.properties'   | null                         | 9
+        'com/foo/Bar.CLASS'                            | null                         | 0
+    }
+
+    def 'recognises module descriptors'() {
+        expect:
+        ClassFileNames.isModuleInfo('module-info')
+        !ClassFileNames.isModuleInfo('com.foo.Bar')
+        !ClassFileNames.isModuleInfo('com.foo.package-info')
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline
+
+import com.google.common.hash.HashCode
+import com.google.common.hash.Hashing
+import com.palantir.baseline.plugins.JarClassIndexCache
+import com.palantir.baseline.tasks.ClassUniquenessAnalyzer
+import com.palantir.baseline.tasks.ClassUniquenessResult
+import com.palantir.baseline.tasks.ClassUniquenessScanner
+import com.palantir.baseline.tasks.ShadowedClass
+import org.gradle.api.artifacts.ModuleVersionIdentifier
+import org.gradle.api.artifacts.ResolvedArtifact
+import org.gradle.api.artifacts.ResolvedModuleVersion
+import org.gradle.api.logging.Logging
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Opcodes
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class ClassUniquenessAnalyzerTest extends Specification {
+
+    private static final int JARS = 20
+    private static final int CLASSES_PER_JAR = 20
+    private static final int CLASHING_JARS = 4
+
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+
+    def 'reports identically named classes with differing contents'() {
+        given:
+        ResolvedArtifact first = artifact('first', ['com/foo/Same.class': 'same', 'com/foo/Differs.class': 'one'])
+        ResolvedArtifact second = artifact('second', ['com/foo/Same.class': 'same', 'com/foo/Differs.class': 'two'])
+        ResolvedArtifact third = artifact('third', ['com/foo/Unique.class': 'unique', 'module-info.class': 'module'])
+        ResolvedArtifact fourth = artifact('fourth', ['module-info.class': 'other module'])
+        ClassUniquenessAnalyzer analyzer = new ClassUniquenessAnalyzer(Logging.getLogger(ClassUniquenessAnalyzerTest))
+
+        when:
+        analyzer.analyzeArtifacts([first, second, third, fourth])
+
+        then:
+        Set<ModuleVersionIdentifier> problemJars = [first, second]*.moduleVersion*.id as Set
+        analyzer.getDifferingProblemJars() == [problemJars] as Set
+        analyzer.getSharedClassesInProblemJars(problemJars) == ['com.foo.Same', 'com.foo.Differs'] as Set
+        analyzer.getDifferingSharedClassesInProblemJars(problemJars) == ['com.foo.Differs'] as Set
+        analyzer.result.differingClassesByJars() == [(problemJars): ['com.foo.Differs'] as Set]
+        analyzer.result.differingClasses([third, fourth]*.moduleVersion*.id).isEmpty()
+    }
+
+    def 'has no result before analyzing anything'() {
+        expect:
+        new ClassUniquenessAnalyzer(Logging.getLogger(ClassUniquenessAnalyzerTest)).result.isEmpty()
+    }
+
+    def 'only hashes colliding classes of a large classpath'() {
+        given:
+        List<ResolvedArtifact> classpath = (0..<JARS).collect { int jarIndex ->
+            Map<String, String> entries = (0..<CLASSES_PER_JAR).collectEntries { int classIndex ->
+                String contents = "${jarIndex}-${classIndex}".toString() * 100
+                ["com/example/jar${jarIndex}/Class${classIndex}.class".toString(), contents]
+            }
+            // a handful of shaded classes clash between neighbouring jars
+            if (jarIndex < CLASHING_JARS) {
+                entries.put("shaded/Clash${jarIndex.intdiv(2)}.class".toString(), "clash${jarIndex}".toString())
+            }
+            return artifact("jar${jarIndex}", entries)
+        }
+
+        ClassUniquenessScanner scanner = new ClassUniquenessScanner()
+        ClassUniquenessAnalyzer analyzer = new ClassUniquenessAnalyzer(
+                Logging.getLogger(ClassUniquenessAnalyzerTest), scanner, JarClassIndexCache.disabled())
+
+        when:
+        analyzer.analyzeArtifacts(classpath)
+
+        then:
+        analyzer.getDifferingProblemJars().size() == CLASHING_JARS.intdiv(2)
+        analyzer.getDifferingSharedClassesInProblemJars([classpath[0], classpath[1]]*.moduleVersion*.id) ==
+                ['shaded.Clash0'] as Set
+        // each jar with a colliding class only inflates that one class
+        scanner.hashedClasses() == CLASHING_JARS
+    }
+
+    def 'analyzers sharing a scanner give the same results'() {
+        given:
+        ResolvedArtifact first = artifact('first', ['com/foo/Differs.class': 'one', 'com/foo/First.class': 'first'])
+        ResolvedArtifact second = artifact('second', ['com/foo/Differs.class': 'two'])
+        ResolvedArtifact third = artifact('third', ['com/foo/Differs.class': 'three'])
+        ClassUniquenessScanner scanner = new ClassUniquenessScanner()
+        ClassUniquenessAnalyzer runtime = new ClassUniquenessAnalyzer(
+                Logging.getLogger(ClassUniquenessAnalyzerTest), scanner, JarClassIndexCache.disabled())
+        ClassUniquenessAnalyzer testRuntime = new ClassUniquenessAnalyzer(
+                Logging.getLogger(ClassUniquenessAnalyzerTest), scanner, JarClassIndexCache.disabled())
+
+        when:
+        runtime.analyzeArtifacts([first, second])
+        testRuntime.analyzeArtifacts([first, second, third])
+
+        then:
+        runtime.getDifferingProblemJars() == [[first, second]*.moduleVersion*.id as Set] as Set
+        testRuntime.getDifferingProblemJars() == [[first, second, third]*.moduleVersion*.id as Set] as Set
+    }
+
+    def 'scanner analyzes each distinct classpath once'() {
+        given:
+        ResolvedArtifact first = artifact('first', ['com/foo/Differs.class': 'one'])
+        ResolvedArtifact second = artifact('second', ['com/foo/Differs.class': 'two'])
+        ClassUniquenessScanner scanner = new ClassUniquenessScanner()
+        int analyses = 0
+        Closure<ClassUniquenessResult> analysis = { List<ResolvedArtifact> artifacts ->
+            analyses++
+            ClassUniquenessAnalyzer analyzer = new ClassUniquenessAnalyzer(
+                    Logging.getLogger(ClassUniquenessAnalyzerTest), scanner, JarClassIndexCache.disabled())
+            analyzer.analyzeArtifacts(artifacts)
+            return analyzer.result
+        }
+
+        when:
+        ClassUniquenessResult result = scanner.analysis([first, second], 8, false) { analysis([first, second]) }
+        ClassUniquenessResult reused = scanner.analysis([first, second], 8, false) { analysis([first, second]) }
+        scanner.analysis([first, second], 11, false) { analysis([first, second]) }
+        scanner.analysis([first], 8, false) { analysis([first]) }
+
+        then:
+        reused.is(result)
+        result.differingProblemJars() == [[first, second]*.moduleVersion*.id as Set] as Set
+        analyses == 3
+    }
+
+    def 'zip checksums only hash classes whose checksums differ'() {
+        given:
+        List<ResolvedArtifact> classpath = (0..<JARS).collect { int jarIndex ->
+            // every jar is shaded into its neighbour, and a few of the shaded copies have been modified
+            Map<String, String> entries = (0..<CLASSES_PER_JAR).collectEntries { int classIndex ->
+                int original = jarIndex.intdiv(2)
+                String contents = "${original}-${classIndex}".toString() * 100
+                if (jarIndex % 2 == 1 && original < CLASHING_JARS && classIndex == 0) {
+                    contents = 'modified'
+                }
+                ["com/example/jar${original}/Class${classIndex}.class".toString(), contents]
+            }
+            return artifact("jar${jarIndex}", entries)
+        }
+
+        ClassUniquenessScanner hashingScanner = new ClassUniquenessScanner()
+        ClassUniquenessScanner checksumsScanner = new ClassUniquenessScanner()
+
+        when:
+        ClassUniquenessAnalyzer hashing = new ClassUniquenessAnalyzer(
+                Logging.getLogger(ClassUniquenessAnalyzerTest), hashingScanner,
+                JarClassIndexCache.disabled(), ClassUniquenessScanner.BASE_RELEASE, false)
+        hashing.analyzeArtifacts(classpath)
+        ClassUniquenessAnalyzer checksums = new ClassUniquenessAnalyzer(
+                Logging.getLogger(ClassUniquenessAnalyzerTest), checksumsScanner,
+                JarClassIndexCache.disabled(), ClassUniquenessScanner.BASE_RELEASE, true)
+        checksums.analyzeArtifacts(classpath)
+
+        then:
+        checksums.getDifferingProblemJars() == hashing.getDifferingProblemJars()
+        checksums.getDifferingProblemJars().size() == CLASHING_JARS
+        checksums.getDifferingSharedClassesInProblemJars([classpath[0], classpath[1]]*.moduleVersion*.id) ==
+                ['com.example.jar0.Class0'] as Set
+        // every class is shaded, but only the modified class of each pair of jars has differing checksums
+        hashingScanner.hashedClasses() == JARS * CLASSES_PER_JAR
+        checksumsScanner.hashedClasses() == CLASHING_JARS * 2
+    }
+
+    def 'scanner only hashes each class once'() {
+        given:
+        ResolvedArtifact first = artifact('first', [
+                'com/foo/Bar.class': 'bar',
+                'com/foo/Unused.class': 'unused',
+                'module-info.class': 'module'])
+        ResolvedArtifact second = artifact('second', ['com/foo/Baz.class': 'baz', 'com/foo/Qux.class': 'qux'])
+        ClassUniquenessScanner scanner = new ClassUniquenessScanner()
+
+        when:
+        List<Map<String, HashCode>> hashes = scanner.classHashesInJars(
+                [first.file, second.file],
+                [['com.foo.Bar'] as Set, ['com.foo.Baz'] as Set],
+                ClassUniquenessScanner.BASE_RELEASE,
+                JarClassIndexCache.disabled())
+        List<Map<String, HashCode>> again = scanner.classHashesInJars(
+                [second.file],
+                [['com.foo.Baz', 'com.foo.Qux'] as Set],
+                ClassUniquenessScanner.BASE_RELEASE,
+                JarClassIndexCache.disabled())
+
+        then:
+        hashes == [
+                ['com.foo.Bar': Hashing.sha256().hashBytes('bar'.bytes)],
+                ['com.foo.Baz': Hashing.sha256().hashBytes('baz'.bytes)]]
+        again == [[
+                'com.foo.Baz': Hashing.sha256().hashBytes('baz'.bytes),
+                'com.foo.Qux': Hashing.sha256().hashBytes('qux'.bytes)]]
+        scanner.hashedClasses() == 3
+        scanner.classFingerprintsInJars([first.file], ClassUniquenessScanner.BASE_RELEASE)*.keySet() ==
+                [['com.foo.Bar', 'com.foo.Unused'] as Set]
+    }
+
+    def 'reports which variant of each differing class is loaded'() {
+        given:
+        ResolvedArtifact bigger = artifact('bigger', ['com/foo/Differs.class': classFile('com/foo/Differs', 5)])
+        ResolvedArtifact smaller = artifact('smaller', ['com/foo/Differs.class': classFile('com/foo/Differs', 3)])
+        ResolvedArtifact same = artifact('same', ['com/foo/Differs.class': classFile('com/foo/Differs', 3)])
+
+        when:
+        ClassUniquenessAnalyzer analyzer = analyze(ClassUniquenessScanner.BASE_RELEASE, [smaller, bigger, same])
+
+        then:
+        analyzer.result.shadowedClasses().size() == 1
+        ShadowedClass shadowed = analyzer.result.shadowedClasses().first()
+        shadowed.className == 'com.foo.Differs'
+        shadowed.winner.jar == smaller.moduleVersion.id
+        shadowed.variants*.jar == [smaller, bigger, same]*.moduleVersion*.id
+        shadowed.variants*.methodCount == [3, 5, 3]
+        shadowed.methodCountDelta == 2
+        shadowed.sizeDelta == shadowed.variants[1].size - shadowed.variants[0].size
+    }
+
+    @Unroll
+    def 'compares the classes of multi-release jars that release #release loads'() {
+        given:
+        String multiRelease = 'Manifest-Version: 1.0\nMulti-Release: true\n'
+        ResolvedArtifact multi = artifact('multi', [
+                'META-INF/MANIFEST.MF': multiRelease,
+                'com/foo/Bar.class': 'base',
+                'META-INF/versions/9/com/foo/Bar.class': 'nine',
+                'META-INF/versions/11/com/foo/Bar.class': 'eleven',
+                'META-INF/versions/11/com/foo/OnlyEleven.class': 'eleven',
+                'META-INF/versions/9/module-info.class': 'module'])
+        ResolvedArtifact other = artifact('other', [
+                'com/foo/Bar.class': 'eleven',
+                'com/foo/OnlyEleven.class': 'other',
+                'module-info.class': 'other module'])
+        ResolvedArtifact notMulti = artifact('not-multi', [
+                'com/foo/Baz.class': 'base',
+                'META-INF/versions/11/com/foo/Bar.class': 'ignored'])
+
+        when:
+        ClassUniquenessAnalyzer analyzer = analyze(release, [multi, other, notMulti])
+
+        then:
+        analyzer.getDifferingProblemJars() == [[multi, other]*.moduleVersion*.id as Set] as Set
+        analyzer.getDifferingSharedClassesInProblemJars([multi, other]*.moduleVersion*.id) == differing as Set
+
+        where:
+        release | differing
+        8       | ['com.foo.Bar']
+        9       | ['com.foo.Bar']
+        11      | ['com.foo.OnlyEleven']
+        17      | ['com.foo.OnlyEleven']
+    }
+
+    private static ClassUniquenessAnalyzer analyze(int release, List<ResolvedArtifact> artifacts) {
+        ClassUniquenessAnalyzer analyzer = new ClassUniquenessAnalyzer(
+                Logging.getLogger(ClassUniquenessAnalyzerTest),
+                new ClassUniquenessScanner(),
+                JarClassIndexCache.disabled(),
+                release,
+                false)
+        analyzer.analyzeArtifacts(artifacts)
+        return analyzer
+    }
+
+    /** A class file declaring {@code methods} abstract methods. */
+    private static byte[] classFile(String internalName, int methods) {
+        ClassWriter writer = new ClassWriter(0)
+        int access = Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT
+        writer.visit(Opcodes.V1_8, access, internalName, null, 'java/lang/Object', null)
+        methods.times { int index ->
+            writer.visitMethod(access, "method${index}", '()V', null, null).visitEnd()
+        }
+        writer.visitEnd()
+        return writer.toByteArray()
+    }
+
+    private ResolvedArtifact artifact(String name, Map<String, ?> entries) {
+        File jar = TestJars.jar(new File(folder.root, "${name}.jar"), entries)
+
+        ModuleVersionIdentifier id = Stub(ModuleVersionIdentifier) {
+            getGroup() >> 'com.example'
+            getName() >> name
+        }
+        ResolvedModuleVersion moduleVersion = Stub(ResolvedModuleVersion) {
+            getId() >> id
+        }
+        return Stub(ResolvedArtifact) {
+            getFile() >> jar
+            getModuleVersion() >> moduleVersion
+        }
+    }
+}
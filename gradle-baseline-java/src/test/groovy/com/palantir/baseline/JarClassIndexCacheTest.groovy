@@ -0,0 +1,145 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline
+
+import com.google.common.hash.HashCode
+import com.google.common.hash.Hashing
+import com.palantir.baseline.plugins.JarClassIndexCache
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class JarClassIndexCacheTest extends Specification {
+
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+
+    private Project project
+
+    def setup() {
+        project = ProjectBuilder.builder()
+                .withGradleUserHomeDir(folder.newFolder('gradle-user-home'))
+                .withProjectDir(folder.newFolder('project'))
+                .build()
+    }
+
+    def 'only analyzes a jar the first time it is seen'() {
+        given:
+        File jar = jar('first.jar', 'com/foo/Bar.class', 'com/foo/Baz.class')
+        Set<String> classes = ['com.foo.Bar', 'com.foo.Baz', 'com.foo.bar.Quux$Inner'] as Set
+        int analyzed = 0
+        JarClassIndexCache.JarAnalyzer analyzer = { File file -> analyzed++; return classes }
+
+        when:
+        Set<String> first = JarClassIndexCache.forProject(project).classesInJar(jar, analyzer)
+        Set<String> second = JarClassIndexCache.forProject(project).classesInJar(jar, analyzer)
+
+        then:
+        analyzed == 1
+        first == classes
+        second == classes
+    }
+
+    def 'analyzes a jar again once it has changed'() {
+        given:
+        File jar = jar('first.jar', 'com/foo/Bar.class')
+        List<File> analyzed = []
+        JarClassIndexCache.JarAnalyzer analyzer = { File file -> analyzed.add(file); return ['com.foo.Bar'] as Set }
+        JarClassIndexCache.forProject(project).classesInJar(jar, analyzer)
+
+        when:
+        jar('first.jar', 'com/foo/Bar.class', 'com/foo/Baz.class').setLastModified(jar.lastModified() + 2000)
+        JarClassIndexCache.forProject(project).classesInJar(jar, analyzer)
+        JarClassIndexCache.forProject(project).classesInJar(jar, analyzer)
+
+        then:
+        analyzed == [jar, jar]
+    }
+
+    def 'only hashes each entry of a jar the first time it is needed'() {
+        given:
+        File jar = jar('first.jar', 'com/foo/Bar.class')
+        Map<String, HashCode> hashes = [
+                'com/foo/Bar.class': Hashing.sha256().hashBytes('Bar'.bytes),
+                'com/foo/Bar$Inner.class': Hashing.sha256().hashBytes('Inner'.bytes)]
+        List<Set<String>> hashed = []
+        JarClassIndexCache.JarHasher hasher = { File file, Set<String> entryNames ->
+            hashed.add(entryNames)
+            return hashes.subMap(entryNames)
+        }
+        JarClassIndexCache cache = JarClassIndexCache.forProject(project)
+        JarClassIndexCache.JarKey key = new JarClassIndexCache.JarKey(jar)
+
+        when:
+        Map<String, HashCode> first = cache.entryHashesInJar(key, ['com/foo/Bar.class'] as Set, hasher)
+        Map<String, HashCode> second = cache.entryHashesInJar(key, hashes.keySet(), hasher)
+        Map<String, HashCode> third = cache.entryHashesInJar(key, hashes.keySet(), hasher)
+        Set<String> classes = cache.classesInJar(jar, { ['com.foo.Bar'] as Set })
+
+        then:
+        hashed == [['com/foo/Bar.class'] as Set, ['com/foo/Bar$Inner.class'] as Set]
+        first == hashes.subMap(['com/foo/Bar.class'])
+        second == hashes
+        third == hashes
+        classes == ['com.foo.Bar'] as Set
+    }
+
+    def 'directories are never cached'() {
+        given:
+        File classesDir = folder.newFolder('classes')
+        int analyzed = 0
+        JarClassIndexCache.JarAnalyzer analyzer = { File file -> analyzed++; return ['com.foo.Bar'] as Set }
+
+        when:
+        JarClassIndexCache.forProject(project).classesInJar(classesDir, analyzer)
+        JarClassIndexCache.forProject(project).classesInJar(classesDir, analyzer)
+
+        then:
+        analyzed == 2
+    }
+
+    @Unroll
+    def 'setting the disable property to "#value" caches #expectedAnalyses analyses'() {
+        given:
+        project.ext.'com.palantir.baseline-exact-dependencies.disable-persistent-index' = value
+        File jar = jar('first.jar', 'com/foo/Bar.class')
+        int analyzed = 0
+        JarClassIndexCache.JarAnalyzer analyzer = { File file -> analyzed++; return ['com.foo.Bar'] as Set }
+
+        when:
+        JarClassIndexCache.forProject(project).classesInJar(jar, analyzer)
+        JarClassIndexCache.forProject(project).classesInJar(jar, analyzer)
+
+        then:
+        analyzed == expectedAnalyses
+
+        where:
+        value   | expectedAnalyses
+        ''      | 2
+        'true'  | 2
+        true    | 2
+        'false' | 1
+        false   | 1
+    }
+
+    private File jar(String name, String... entries) {
+        return TestJars.jar(new File(folder.root, name), entries.collectEntries { String entry -> [(entry): entry] })
+    }
+}
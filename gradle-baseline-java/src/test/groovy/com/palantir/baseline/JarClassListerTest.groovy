@@ -0,0 +1,48 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline
+
+import com.google.common.collect.ImmutableList
+import com.palantir.baseline.plugins.JarClassLister
+import org.apache.maven.shared.dependency.analyzer.DefaultClassAnalyzer
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class JarClassListerTest extends Specification {
+
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+
+    def 'lists the same classes as DefaultClassAnalyzer'() {
+        given:
+        File guava = new File(ImmutableList.protectionDomain.codeSource.location.toURI())
+
+        expect:
+        JarClassLister.classesInJar(guava) == new DefaultClassAnalyzer().analyze(guava.toURI().toURL())
+    }
+
+    def 'ignores directories and non-class entries'() {
+        given:
+        File jar = TestJars.jar(new File(folder.root, 'test.jar'), [
+                'com/', 'com/foo/', 'com/foo/Bar.class', 'com/foo/Bar$Inner.class', 'com/foo/bar.properties',
+                'META-INF/MANIFEST.MF'].collectEntries { String entry -> [(entry): new byte[0]] })
+
+        expect:
+        JarClassLister.classesInJar(jar) == ['com.foo.Bar', 'com.foo.Bar$Inner'] as Set
+    }
+}
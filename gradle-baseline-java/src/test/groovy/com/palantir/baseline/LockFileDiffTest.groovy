@@ -0,0 +1,78 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline
+
+import com.palantir.baseline.tasks.LockFileDiff
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class LockFileDiffTest extends Specification {
+
+    private static final int LINES = 50_000
+
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+
+    def 'identical files have no diff'() {
+        expect:
+        !LockFileDiff.diff(lockFile('a\nb\n'), 'a\nb\n').isPresent()
+        !LockFileDiff.diff(lockFile(''), '').isPresent()
+    }
+
+    def 'trailing newlines and carriage returns are differences'() {
+        expect:
+        LockFileDiff.diff(lockFile('a\nb'), 'a\nb\n').isPresent()
+        LockFileDiff.diff(lockFile('a\nb\n'), 'a\nb').isPresent()
+        LockFileDiff.diff(lockFile('a\r\nb\n'), 'a\nb\n').isPresent()
+    }
+
+    def 'hunk headers count lines from the start of the file'() {
+        given:
+        List<String> lines = (0..<100).collect { "line ${it}".toString() }
+        List<String> changed = new ArrayList<>(lines)
+        changed.set(50, 'changed')
+
+        when:
+        String diff = LockFileDiff.diff(lockFile(lines.join('\n')), changed.join('\n')).get()
+
+        then:
+        diff.contains('@@ -48,7 +48,7 @@')
+        diff.contains('-line 50')
+        diff.contains('+changed')
+        !diff.contains('line 40')
+    }
+
+    def 'diff of a huge lock file is bounded'() {
+        given:
+        List<String> lines = (0..<LINES).collect { "  - com.example.Class${it}".toString() }
+        List<String> reversed = lines.reverse()
+
+        when:
+        String diff = LockFileDiff.diff(lockFile(lines.join('\n')), reversed.join('\n')).get()
+
+        then:
+        diff.readLines().size() <= 201
+        diff.endsWith('... (further differences omitted)')
+    }
+
+    private File lockFile(String contents) {
+        File file = folder.newFile()
+        file.text = contents
+        return file
+    }
+}
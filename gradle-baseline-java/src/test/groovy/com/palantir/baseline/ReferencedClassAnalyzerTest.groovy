@@ -0,0 +1,115 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline
+
+import com.google.common.collect.ImmutableList
+import com.palantir.baseline.plugins.ReferencedClassAnalyzer
+import java.util.stream.Collectors
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import org.gradle.testfixtures.ProjectBuilder
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Opcodes
+import spock.lang.Specification
+
+class ReferencedClassAnalyzerTest extends Specification {
+
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+
+    def 'constant pool analyzer finds every class found by the ASM analyzer on a real jar'() {
+        given:
+        List<File> classFiles = extractClasses(
+                new File(ImmutableList.protectionDomain.codeSource.location.toURI()), folder.newFolder())
+
+        expect:
+        classFiles.size() > 1000
+        classFiles.each { File classFile ->
+            Set<String> asm = ReferencedClassAnalyzer.ASM.referencedClasses(classFile).collect(Collectors.toSet())
+            Set<String> constantPool =
+                    ReferencedClassAnalyzer.CONSTANT_POOL.referencedClasses(classFile).collect(Collectors.toSet())
+            Set<String> missing = asm - constantPool
+            assert missing.isEmpty(), "${classFile}"
+        }
+    }
+
+    def 'constant pool analyzer decodes class names in modified UTF-8'() {
+        given:
+        // NUL and supplementary characters are encoded differently in class files than in standard UTF-8
+        List<String> names = ['foo/Nul\u0000Name', 'foo/Emoji\uD83D\uDE00Name', 'foo/\u00E9t\u00E9']
+        ClassWriter writer = new ClassWriter(0)
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, 'foo/Bar', null, 'java/lang/Object', names as String[])
+        writer.visitEnd()
+        File classFile = folder.newFile('Bar.class')
+        classFile.bytes = writer.toByteArray()
+
+        when:
+        Set<String> constantPool =
+                ReferencedClassAnalyzer.CONSTANT_POOL.referencedClasses(classFile).collect(Collectors.toSet())
+
+        then:
+        constantPool == ['foo.Bar', 'java.lang.Object', *names.collect { it.replace('/', '.') }] as Set
+    }
+
+    def 'analyzes directories of class files'() {
+        given:
+        File output = folder.newFolder('classes')
+        extractClasses(new File(ImmutableList.protectionDomain.codeSource.location.toURI()), output)
+        File classes = new File(output, 'com/google/common/base')
+
+        when:
+        Set<String> asm = ReferencedClassAnalyzer.ASM.referencedClasses(classes).collect(Collectors.toSet())
+        Set<String> constantPool =
+                ReferencedClassAnalyzer.CONSTANT_POOL.referencedClasses(classes).collect(Collectors.toSet())
+
+        then:
+        constantPool.containsAll(asm)
+        constantPool.contains('com.google.common.base.Preconditions')
+    }
+
+    def 'analyzer is selected by a project property'() {
+        when:
+        def project = ProjectBuilder.builder().withProjectDir(folder.newFolder('project')).build()
+
+        then:
+        ReferencedClassAnalyzer.forProject(project) == ReferencedClassAnalyzer.ASM
+
+        when:
+        project.ext.'com.palantir.baseline-exact-dependencies.analyzer' = 'constant-pool'
+
+        then:
+        ReferencedClassAnalyzer.forProject(project) == ReferencedClassAnalyzer.CONSTANT_POOL
+    }
+
+    private static List<File> extractClasses(File jar, File output) {
+        List<File> classFiles = []
+        new ZipFile(jar).withCloseable { ZipFile zip ->
+            zip.entries().findAll { ZipEntry entry ->
+                entry.name.endsWith('.class') && !entry.name.startsWith('META-INF/')
+                        && entry.name != 'module-info.class'
+            }.each { ZipEntry entry ->
+                File classFile = new File(output, entry.name)
+                classFile.parentFile.mkdirs()
+                classFile.bytes = zip.getInputStream(entry).bytes
+                classFiles.add(classFile)
+            }
+        }
+        return classFiles
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.baseline
+
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/** Writes small jars for tests that read them directly rather than through a Gradle build. */
+final class TestJars {
+
+    private TestJars() {}
+
+    /** Each entry's contents are either bytes or, for anything else, the bytes of its string value. */
+    static File jar(File file, Map<String, ?> entries) {
+        file.withOutputStream { out ->
+            ZipOutputStream zip = new ZipOutputStream(out)
+            entries.each { String entry, Object contents ->
+                zip.putNextEntry(new ZipEntry(entry))
+                zip.write(contents instanceof byte[] ? (byte[]) contents : contents.toString().bytes)
+                zip.closeEntry()
+            }
+            zip.close()
+        }
+        return file
+    }
+}